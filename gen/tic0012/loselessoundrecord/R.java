@@ -15,8 +15,11 @@ public final class R {
          */
         public static final int compression=0x7f040003;
         public static final int delete_wav_after_read=0x7f040002;
+        public static final int event_gated=0x7f040006;
+        public static final int flac_output=0x7f040004;
         public static final int record_into_music_folder=0x7f040000;
         public static final int show_image=0x7f040001;
+        public static final int stereo=0x7f040005;
     }
     public static final class drawable {
         public static final int app_icon=0x7f020000;
@@ -39,12 +42,17 @@ public final class R {
         public static final int delete_wav_checkbox=0x7f090011;
         public static final int dialog_countdown_text=0x7f09000c;
         public static final int dialog_editText=0x7f09000b;
+        public static final int event_gated_checkbox=0x7f09002d;
+        public static final int flac_output_checkbox=0x7f09002a;
         public static final int gunshotsLinearLayout=0x7f090002;
         public static final int gunsotsListView=0x7f090004;
-        public static final int imageView1=0x7f090006;
+        public static final int waveformView=0x7f090006;
         public static final int mainLayout=0x7f090000;
         public static final int menu_add_gunshot=0x7f09001f;
         public static final int menu_category_add=0x7f090018;
+        public static final int menu_category_binary_export=0x7f090029;
+        public static final int menu_category_csv_export=0x7f090027;
+        public static final int menu_category_json_export=0x7f090028;
         public static final int menu_category_xml_export=0x7f090021;
         public static final int menu_delete_gunshots=0x7f09001e;
         public static final int menu_hide_graph=0x7f090020;
@@ -58,6 +66,7 @@ public final class R {
         public static final int readingProgressBar=0x7f090015;
         public static final int recordControllButton=0x7f090001;
         public static final int recordNameText=0x7f090003;
+        public static final int sample_rate_spinner=0x7f09002b;
         public static final int saveResultButton=0x7f090008;
         public static final int save_into_music_checkbox=0x7f090012;
         public static final int scrollView1=0x7f09000d;
@@ -65,6 +74,7 @@ public final class R {
         public static final int settingsSensitivityTextView=0x7f09000e;
         public static final int shotsList=0x7f090007;
         public static final int show_image_checkbox=0x7f090010;
+        public static final int stereo_checkbox=0x7f09002c;
         public static final int stopTimeEditText=0x7f090014;
         public static final int textView1=0x7f090013;
         public static final int timeEditText=0x7f09000a;
@@ -77,10 +87,13 @@ public final class R {
          */
         public static final int bitmap_ampl_stretch=0x7f060003;
         public static final int compression_ratio=0x7f060001;
+        public static final int gate_post_time=0x7f060008;
+        public static final int gate_pre_time=0x7f060007;
         public static final int gunshot_sensitivity=0x7f060000;
+        public static final int pre_roll_time=0x7f060006;
+        public static final int sample_rate=0x7f060005;
         /**  If true sompression ratio will be used in reading 
          */
-        public static final int max_bitmap_seconds=0x7f060002;
     }
     public static final class layout {
         public static final int activity_final_record=0x7f030000;
@@ -107,7 +120,9 @@ public final class R {
     public static final class string {
         public static final int add_gunshot=0x7f050034;
         public static final int app_name=0x7f050001;
+        public static final int binary_export=0x7f05003c;
         public static final int cancel=0x7f050020;
+        public static final int categories_loading=0x7f050043;
         public static final int category_name=0x7f050018;
         public static final int category_name_cant_empty=0x7f05001c;
         public static final int change_saved=0x7f050019;
@@ -115,16 +130,20 @@ public final class R {
         public static final int context_menu_delete=0x7f050015;
         public static final int context_menu_edit=0x7f050016;
         public static final int creating_image=0x7f05000a;
+        public static final int csv_export=0x7f05003a;
         public static final int db_default_cat_cant_delete=0x7f05000f;
         public static final int db_delete_error=0x7f05000e;
         public static final int db_insert_error=0x7f05000d;
+        public static final int db_load_error=0x7f050042;
         public static final int delete_wav_after_search=0x7f050031;
         public static final int dialog_shoot_after_sound=0x7f050026;
         public static final int dialog_title_random_time_down_select_descr=0x7f050024;
         public static final int dialog_title_random_time_up_select_descr=0x7f050025;
         public static final int dialog_title_time_select=0x7f050023;
         public static final int dialog_title_time_setup=0x7f050021;
+        public static final int dropped_blocks=0x7f050041;
         public static final int error=0x7f050032;
+        public static final int export_error=0x7f05002c;
         public static final int file_not_found=0x7f050038;
         public static final int from=0x7f050029;
         public static final int gunshot_added=0x7f050036;
@@ -134,6 +153,8 @@ public final class R {
         public static final int hide_picture=0x7f050011;
         public static final int icon_mic_text=0x7f050033;
         public static final int image_alt=0x7f050005;
+        public static final int json_export=0x7f05003b;
+        public static final int keep_only_shots=0x7f050040;
         public static final int menu_category_add=0x7f05001a;
         public static final int menu_delete_gunshots=0x7f050014;
         public static final int menu_select_all=0x7f05001d;
@@ -141,8 +162,11 @@ public final class R {
         public static final int my_gunshots=0x7f050028;
         public static final int no_gunshot=0x7f05002a;
         public static final int no_sd_card=0x7f050008;
+        public static final int record_stereo=0x7f05003e;
+        public static final int sample_rate=0x7f05003f;
         public static final int save=0x7f05000c;
         public static final int save_folder=0x7f050000;
+        public static final int save_records_as_flac=0x7f05003d;
         public static final int save_records_into_music_folder=0x7f050037;
         public static final int set_random_timer=0x7f05001f;
         public static final int set_timer=0x7f05001e;
@@ -162,7 +186,6 @@ public final class R {
         public static final int toggle_off=0x7f050006;
         public static final int toggle_on=0x7f050007;
         public static final int xml_export=0x7f05002b;
-        public static final int xml_export_error=0x7f05002c;
     }
     public static final class style {
         public static final int AppTheme=0x7f070000;
@@ -1,5 +1,6 @@
 package tic0012.loselessoundrecord;
 
+import tic0012.loselessoundrecord.classes.CaptureFormat;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
@@ -12,9 +13,11 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.ArrayAdapter;
 import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.SeekBar;
+import android.widget.Spinner;
 import android.widget.Toast;
 
 /**
@@ -37,6 +40,16 @@ public abstract class BaseActivity extends Activity {
 	 * Key to retrieve stored Category id through extra intent
 	 */
 	protected final String CATEGORY_ID_FLAG = "category_id";
+
+	/**
+	 * Key to retrieve times of gunShots found while recording through extra intent
+	 */
+	protected final String GUNSHOT_TIMES_FLAG = "gunshot_times";
+
+	/**
+	 * Key to retrieve sample indexes of gunShots found while recording through extra intent
+	 */
+	protected final String GUNSHOT_SAMPLES_FLAG = "gunshot_samples";
 	
 	/**
 	 * Basic application preferences name
@@ -63,6 +76,26 @@ public abstract class BaseActivity extends Activity {
 	 */
 	protected final String SAVE_INTO_MUSIC_FOLDER = "record_into_music_folder";
 	
+	/**
+	 * Save records as lossless FLAC key name in configuration file
+	 */
+	protected final String CONFIG_FLAC_OUTPUT = "flac_output";
+	
+	/**
+	 * Capture sample rate key name in configuration file
+	 */
+	protected final String CONFIG_SAMPLE_RATE = "sample_rate";
+	
+	/**
+	 * Record in stereo key name in configuration file
+	 */
+	protected final String CONFIG_STEREO = "stereo";
+	
+	/**
+	 * Keep only audio around gunShots key name in configuration file
+	 */
+	protected final String CONFIG_EVENT_GATED = "event_gated";
+	
 	/**
 	 * Auto stop time key in configuration file
 	 */
@@ -138,6 +171,10 @@ public abstract class BaseActivity extends Activity {
 		final CheckBox showImageCheckBox = (CheckBox)view.findViewById(R.id.show_image_checkbox);
 		final CheckBox deleteWavCheckBox = (CheckBox)view.findViewById(R.id.delete_wav_checkbox);
 		final CheckBox saveIntoMusicCheckBox = (CheckBox)view.findViewById(R.id.save_into_music_checkbox);
+		final CheckBox flacOutputCheckBox = (CheckBox)view.findViewById(R.id.flac_output_checkbox);
+		final Spinner sampleRateSpinner = (Spinner)view.findViewById(R.id.sample_rate_spinner);
+		final CheckBox stereoCheckBox = (CheckBox)view.findViewById(R.id.stereo_checkbox);
+		final CheckBox eventGatedCheckBox = (CheckBox)view.findViewById(R.id.event_gated_checkbox);
 		final EditText stopTimeEditText = (EditText)view.findViewById(R.id.stopTimeEditText);	
 		final Resources res = this.getResources();
 		
@@ -145,6 +182,27 @@ public abstract class BaseActivity extends Activity {
 		sensitivityBar.setProgress(this.preferences.getInt(this.CONFIG_SENSITIVITY_KEY, res.getInteger(R.integer.gunshot_sensitivity)));
 		showImageCheckBox.setChecked(this.preferences.getBoolean(this.CONFIG_SHOW_IMAGE_KEY, res.getBoolean(R.bool.show_image)));
 		deleteWavCheckBox.setChecked(this.preferences.getBoolean(this.CONFIG_DELETE_WAV, res.getBoolean(R.bool.delete_wav_after_read)));
+		flacOutputCheckBox.setChecked(this.preferences.getBoolean(this.CONFIG_FLAC_OUTPUT, res.getBoolean(R.bool.flac_output)));
+		stereoCheckBox.setChecked(this.preferences.getBoolean(this.CONFIG_STEREO, res.getBoolean(R.bool.stereo)));
+		eventGatedCheckBox.setChecked(this.preferences.getBoolean(this.CONFIG_EVENT_GATED, res.getBoolean(R.bool.event_gated)));
+		
+		// sample rates in kHz, in order of CaptureFormat.SAMPLE_RATES
+		int sampleRate = this.preferences.getInt(this.CONFIG_SAMPLE_RATE, res.getInteger(R.integer.sample_rate));
+		String[] sampleRateLabels = new String[CaptureFormat.SAMPLE_RATES.length];
+		for (int i = 0; i < sampleRateLabels.length; i++) {
+			sampleRateLabels[i] = (CaptureFormat.SAMPLE_RATES[i] / 1000f) + " kHz";
+			
+			if (CaptureFormat.SAMPLE_RATES[i] == sampleRate) {
+				sampleRateSpinner.setTag(i);
+			}
+		}
+		ArrayAdapter<String> sampleRateAdapter = new ArrayAdapter<String>(this,
+				android.R.layout.simple_spinner_item, sampleRateLabels);
+		sampleRateAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+		sampleRateSpinner.setAdapter(sampleRateAdapter);
+		if (sampleRateSpinner.getTag() != null) {
+			sampleRateSpinner.setSelection((Integer) sampleRateSpinner.getTag());
+		}
 		
 		int autoStopDefault = this.preferences.getInt(this.CONFIG_AUTO_STOP_TIME_KEY, res.getInteger(R.integer.auto_stop_time));
 		if(autoStopDefault > 0){
@@ -156,7 +214,11 @@ public abstract class BaseActivity extends Activity {
 		    	int sensitivityValue = sensitivityBar.getProgress();	
 		    	boolean showImage = showImageCheckBox.isChecked();
 		    	boolean deleteWav = deleteWavCheckBox.isChecked();
-		    	boolean saveIntoMusic = saveIntoMusicCheckBox.isChecked();				    			    
+		    	boolean saveIntoMusic = saveIntoMusicCheckBox.isChecked();
+		    	boolean flacOutput = flacOutputCheckBox.isChecked();
+		    	boolean stereo = stereoCheckBox.isChecked();
+		    	boolean eventGated = eventGatedCheckBox.isChecked();
+		    	int sampleRate = CaptureFormat.SAMPLE_RATES[sampleRateSpinner.getSelectedItemPosition()];				    			    
 		    	int autoStopTime = 0; 
 		    	
 		    	String textValue = stopTimeEditText.getText().toString();
@@ -171,6 +233,10 @@ public abstract class BaseActivity extends Activity {
 		    	editor.putBoolean(CONFIG_SHOW_IMAGE_KEY, showImage);
 		    	editor.putBoolean(CONFIG_DELETE_WAV, deleteWav);
 		    	editor.putBoolean(SAVE_INTO_MUSIC_FOLDER, saveIntoMusic);
+		    	editor.putBoolean(CONFIG_FLAC_OUTPUT, flacOutput);
+		    	editor.putInt(CONFIG_SAMPLE_RATE, sampleRate);
+		    	editor.putBoolean(CONFIG_STEREO, stereo);
+		    	editor.putBoolean(CONFIG_EVENT_GATED, eventGated);
 		    	editor.putInt(CONFIG_AUTO_STOP_TIME_KEY, autoStopTime);
 		    	
 		    	if(editor.commit()){
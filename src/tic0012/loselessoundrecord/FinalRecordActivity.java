@@ -1,7 +1,10 @@
 package tic0012.loselessoundrecord;
 
 import java.io.File;
+import java.util.ArrayList;
 
+import tic0012.loselessoundrecord.classes.CaptureFormat;
+import tic0012.loselessoundrecord.classes.GunshotDetectionStage;
 import tic0012.loselessoundrecord.classes.UncompressedAudioRecorder;
 import tic0012.loselessoundrecord.model.SDCardException;
 import android.media.AudioManager;
@@ -42,6 +45,11 @@ public class FinalRecordActivity extends BaseActivity {
 	 */
 	private UncompressedAudioRecorder myRecorder = null;
 
+	/**
+	 * Searches for gunShots while recording
+	 */
+	private GunshotDetectionStage detectionStage = null;
+
 	/**
 	 * START/STOP recording button
 	 */
@@ -121,6 +129,22 @@ public class FinalRecordActivity extends BaseActivity {
 	 * Timer for auto stop recording
 	 */
 	private StopTimer stopTimer;
+	
+	/**
+	 * Only audio around gunShots is kept in current record
+	 */
+	private boolean eventGated;
+	
+	/**
+	 * Timer started recording, dismissed timer dialog must not disarm
+	 * recorder, armed capture continues into record
+	 */
+	private boolean recordingTriggered = false;
+	
+	/**
+	 * Recorder is armed this many ms before timed recording starts
+	 */
+	private final long ARM_BEFORE_START = 5000;
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -346,6 +370,13 @@ public class FinalRecordActivity extends BaseActivity {
 				recordTimer.cancel();
 			}
 			
+			// nothing is recorded, when timer was cancelled
+			if (recordingTriggered) {
+				recordingTriggered = false;
+			} else {
+				myRecorder.disarm();
+			}
+			
 			// screen can turn off now
 			getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 		}
@@ -377,12 +408,22 @@ public class FinalRecordActivity extends BaseActivity {
 				}
 				
 				recordedFilePath = myRecorder.stopRecording();
+				myRecorder.removeStage(detectionStage);
+				
+				// writer was too slow, part of record is missing
+				int dropped = myRecorder.getOverrunCount();
+				if (dropped > 0) {
+					Toast.makeText(getApplicationContext(),
+							getString(R.string.dropped_blocks, dropped),
+							Toast.LENGTH_LONG).show();
+				}
 										
 				// Add record to media scanner
 				if(saveToMusicDir){
 					File file = new File(recordedFilePath);			
 					String[] filesToScan = new String[]{ file.getPath() };
-					String[] mimeTypes = new String[]{ "audio/wav", "audio/x-wav" };
+					String[] mimeTypes = recordedFilePath.endsWith(".flac") ? new String[]{ "audio/flac" }
+							: new String[]{ "audio/wav", "audio/x-wav" };
 					MediaScannerConnection.scanFile(getApplicationContext(), filesToScan, mimeTypes, null);	
 				}				
 				
@@ -409,6 +450,13 @@ public class FinalRecordActivity extends BaseActivity {
 				randomTimer.cancel();
 			}
 			
+			// nothing is recorded, when timer was cancelled
+			if (recordingTriggered) {
+				recordingTriggered = false;
+			} else {
+				myRecorder.disarm();
+			}
+			
 			// screen can turn off now
 			getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 		}
@@ -450,6 +498,28 @@ public class FinalRecordActivity extends BaseActivity {
 														// not ready
 			throw new SDCardException("SD card is not mounted");
 		}
+		
+		// search for gunShots while recording
+		int sensitivity = this.preferences.getInt(this.CONFIG_SENSITIVITY_KEY, this.getResources().getInteger(R.integer.gunshot_sensitivity));
+		int compressionRatio = 1;
+		if (this.getResources().getBoolean(R.bool.compression)) {
+			compressionRatio = this.getResources().getInteger(R.integer.compression_ratio);
+		}
+		this.detectionStage = new GunshotDetectionStage(compressionRatio, sensitivity);
+		this.myRecorder.addStage(this.detectionStage);
+		
+		// keep only audio around gunShots found by detection stage
+		this.eventGated = this.preferences.getBoolean(this.CONFIG_EVENT_GATED, this.getResources().getBoolean(R.bool.event_gated));
+		if (this.eventGated) {
+			this.myRecorder.setEventGate(this.detectionStage,
+					this.getResources().getInteger(R.integer.gate_pre_time),
+					this.getResources().getInteger(R.integer.gate_post_time));
+		} else {
+			this.myRecorder.setEventGate(null, 0, 0);
+		}
+		this.myRecorder.setFlacOutput(this.preferences.getBoolean(this.CONFIG_FLAC_OUTPUT, this.getResources().getBoolean(R.bool.flac_output)));
+		
+		this.applyCaptureFormat();
 
 		this.recordingThread = new Thread(new Runnable() {
 
@@ -462,6 +532,35 @@ public class FinalRecordActivity extends BaseActivity {
 		this.recordingThread.start();
 	}
 
+	/**
+	 * Set capture format from settings, device may not support it, closest
+	 * one is used
+	 */
+	private void applyCaptureFormat() {
+		CaptureFormat format = new CaptureFormat(
+				this.preferences.getInt(this.CONFIG_SAMPLE_RATE, this.getResources().getInteger(R.integer.sample_rate)),
+				this.preferences.getBoolean(this.CONFIG_STEREO, this.getResources().getBoolean(R.bool.stereo)) ? 2 : 1);
+		format = this.myRecorder.setCaptureFormat(format);
+		Log.i("capture format", format.toString());
+	}
+
+	/**
+	 * Start capturing into pre-roll before timed recording starts, so
+	 * recording starts without latency and with audio before the signal
+	 */
+	private void armRecorder() {
+		if (this.myRecorder.isArmed()) {
+			return;
+		}
+		
+		try {
+			this.applyCaptureFormat();
+			this.myRecorder.arm(this.getResources().getInteger(R.integer.pre_roll_time));
+		} catch (IllegalStateException e) { // recording will start unarmed
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Change activity to Read
 	 * 
@@ -475,6 +574,23 @@ public class FinalRecordActivity extends BaseActivity {
 
 		intent.putExtra(this.FILEPATH_FLAG, filePath);
 
+		// pass gunShots found while recording, gated record is searched again
+		// to get gunShots positions in its segments
+		if (this.detectionStage != null && !this.eventGated) {
+			ArrayList<Float> gunshots = this.detectionStage.getGunshots();
+			ArrayList<Integer> sampleShots = this.detectionStage.getSampleShots();
+			float[] times = new float[gunshots.size()];
+			int[] samples = new int[sampleShots.size()];
+
+			for (int i = 0; i < times.length; i++) {
+				times[i] = gunshots.get(i);
+				samples[i] = sampleShots.get(i);
+			}
+
+			intent.putExtra(this.GUNSHOT_TIMES_FLAG, times);
+			intent.putExtra(this.GUNSHOT_SAMPLES_FLAG, samples);
+		}
+
 		this.startActivity(intent);
 	}
 
@@ -492,6 +608,8 @@ public class FinalRecordActivity extends BaseActivity {
 
 		@Override
 		public void onFinish() {
+			// dismiss listener runs after recording start
+			recordingTriggered = true;
 			countDownDialog.dismiss();
 
 			try {
@@ -502,6 +620,7 @@ public class FinalRecordActivity extends BaseActivity {
 				toggleButton.setChecked(true);
 				startRecording();
 			} catch (SDCardException e) {
+				recordingTriggered = false;
 				toggleButton.setChecked(false);
 				// show info
 				Toast.makeText(getApplicationContext(), R.string.no_sd_card,
@@ -516,6 +635,10 @@ public class FinalRecordActivity extends BaseActivity {
 
 		@Override
 		public void onTick(long millisUntilFinished) {
+			if (millisUntilFinished <= ARM_BEFORE_START) {
+				armRecorder();
+			}
+			
 			long hours, minutes, seconds;
 			hours = millisUntilFinished / 60 / 60 / 1000;
 			minutes = (millisUntilFinished / 1000 / 60) - (hours * 60);
@@ -544,6 +667,8 @@ public class FinalRecordActivity extends BaseActivity {
 
 		@Override
 		public void onFinish() {
+			// dismiss listener runs after recording start
+			recordingTriggered = true;
 			randomRecordDialog.dismiss();
 
 			try {
@@ -554,6 +679,7 @@ public class FinalRecordActivity extends BaseActivity {
 				toggleButton.setChecked(true);
 				startRecording();
 			} catch (SDCardException e) {
+				recordingTriggered = false;
 				toggleButton.setChecked(false);
 				// show info
 				Toast.makeText(getApplicationContext(), R.string.no_sd_card,
@@ -567,7 +693,10 @@ public class FinalRecordActivity extends BaseActivity {
 		}
 
 		@Override
-		public void onTick(long arg0) {			
+		public void onTick(long millisUntilFinished) {
+			if (millisUntilFinished <= ARM_BEFORE_START) {
+				armRecorder();
+			}
 		}
 	}
 		
@@ -2,6 +2,7 @@ package tic0012.loselessoundrecord;
 
 import tic0012.loselessoundrecord.classes.Gunshot;
 import tic0012.loselessoundrecord.classes.Record;
+import tic0012.loselessoundrecord.model.AsyncRepository;
 import tic0012.loselessoundrecord.model.DBException;
 import tic0012.loselessoundrecord.model.GunshotModel;
 import tic0012.loselessoundrecord.model.RecordModel;
@@ -34,6 +35,21 @@ public class GunshotsActivity extends BaseActivity {
 	 */
 	private Record record = null;
 
+	/**
+	 * ID of record to show
+	 */
+	private long recordId = 0;
+
+	/**
+	 * Record loading off main thread
+	 */
+	private AsyncRepository<Record> recordRepository;
+
+	/**
+	 * Running record loading
+	 */
+	private AsyncRepository.Request loadRequest;
+
 	private RecordModel recordModel;
 
 	private GunshotModel gunShotModel;
@@ -52,13 +68,11 @@ public class GunshotsActivity extends BaseActivity {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_gunshots);
 
-		long recordId = 0;
-
 		this.createAddDialog();
 
 		// try to get filePath and stored points
 		if (savedInstanceState != null) { // activity is already running
-			recordId = savedInstanceState.getLong(this.RECORD_ID_FLAG);
+			this.recordId = savedInstanceState.getLong(this.RECORD_ID_FLAG);
 
 		} else { // new activity intent
 			Bundle extras = getIntent().getExtras();
@@ -67,7 +81,7 @@ public class GunshotsActivity extends BaseActivity {
 				// start parent activity
 				this.setActivity(FinalRecordActivity.class, true);
 			} else {
-				recordId = extras.getLong(this.RECORD_ID_FLAG);
+				this.recordId = extras.getLong(this.RECORD_ID_FLAG);
 			}
 		}
 
@@ -75,17 +89,52 @@ public class GunshotsActivity extends BaseActivity {
 				.getInstance(this.getApplicationContext());
 		this.gunShotModel = GunshotModel.getInstance(this
 				.getApplicationContext());
-		this.record = this.recordModel.get(recordId);
+		this.recordRepository = new AsyncRepository<Record>(this.recordModel);
 		this.gunShotsListView = (ListView) this
 				.findViewById(R.id.gunsotsListView);
-		TextView textView = (TextView) this.findViewById(R.id.recordNameText);
 
-		// set name of Record
-		textView.setText(DateFormat.format("d. M. yyyy k:mm",
-				this.record.dateRecorderd));
+		// list is filled when record is loaded
+		this.loadRecord();
+	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
 
-		// setup GunShots into list
-		this.setUpListView();
+		if (this.loadRequest != null) {
+			this.loadRequest.cancel();
+		}
+	}
+
+	/**
+	 * Load record on background and show its gunShots
+	 */
+	private void loadRecord() {
+		if (this.loadRequest != null) {
+			this.loadRequest.cancel();
+		}
+
+		this.loadRequest = this.recordRepository.get(this.recordId,
+				new AsyncRepository.Callback<Record>() {
+					public void onResult(Record result) {
+						if (result == null) {
+							return;
+						}
+						record = result;
+
+						// set name of Record
+						TextView textView = (TextView) findViewById(R.id.recordNameText);
+						textView.setText(DateFormat.format("d. M. yyyy k:mm",
+								record.dateRecorderd));
+
+						// setup GunShots into list
+						setUpListView();
+					}
+
+					public void onError(Exception e) {
+						e.printStackTrace();
+					}
+				});
 	}
 
 	@Override
@@ -122,7 +171,9 @@ public class GunshotsActivity extends BaseActivity {
 			return true;
 
 		case R.id.menu_record_share:
-			this.shareGunshots();
+			if (this.record != null) {
+				this.shareGunshots();
+			}
 			return true;
 		case R.id.menu_add_gunshot:
 			this.adGunShotDialog.show();
@@ -136,7 +187,7 @@ public class GunshotsActivity extends BaseActivity {
 		super.onSaveInstanceState(outState);
 
 		// make record persistent
-		outState.putLong(this.RECORD_ID_FLAG, this.record.getId());
+		outState.putLong(this.RECORD_ID_FLAG, this.recordId);
 	}
 
 	/**
@@ -163,12 +214,7 @@ public class GunshotsActivity extends BaseActivity {
 	 * Refresh values in List View
 	 */
 	private void refreshListView() {
-		if (this.record == null) {
-			return;
-		}
-
-		this.record = this.recordModel.get(this.record.getId());
-		this.setUpListView();
+		this.loadRecord();
 	}
 
 	/**
@@ -178,6 +224,10 @@ public class GunshotsActivity extends BaseActivity {
 		SparseBooleanArray sparseBooleanArray = this.gunShotsListView
 				.getCheckedItemPositions();
 
+		if (this.record == null) {
+			return;
+		}
+
 		// remove gunShots
 		for (int i = 0; i < sparseBooleanArray.size(); i++) {
 			if (sparseBooleanArray.get(i) == true) {
@@ -228,7 +278,7 @@ public class GunshotsActivity extends BaseActivity {
 						}
 						float time = Float.valueOf(textValue);
 						Gunshot newGunShot = gunShotModel.gunShotFactory(0,
-								time, record.getId());
+								time, recordId);
 						try {
 							gunShotModel.add(newGunShot);
 							refreshListView();
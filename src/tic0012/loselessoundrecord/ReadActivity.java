@@ -5,9 +5,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import tic0012.loselessoundrecord.classes.AmplitudePrinter;
+import tic0012.loselessoundrecord.classes.CaptureFormat;
 import tic0012.loselessoundrecord.classes.Category;
+import tic0012.loselessoundrecord.classes.CategorySummary;
 import tic0012.loselessoundrecord.classes.Gunshot;
 import tic0012.loselessoundrecord.classes.Record;
+import tic0012.loselessoundrecord.classes.SessionTimeline;
+import tic0012.loselessoundrecord.classes.WaveformPyramid;
+import tic0012.loselessoundrecord.classes.WaveformView;
+import tic0012.loselessoundrecord.model.AsyncRepository;
 import tic0012.loselessoundrecord.model.CategoryModel;
 import tic0012.loselessoundrecord.model.DBException;
 import tic0012.loselessoundrecord.model.RecordModel;
@@ -21,7 +27,6 @@ import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.SparseBooleanArray;
 import android.view.ContextMenu;
@@ -38,7 +43,6 @@ import android.view.ContextMenu.ContextMenuInfo;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.Toast;
@@ -51,9 +55,9 @@ import android.widget.Toast;
 public class ReadActivity extends BaseActivity {
 
 	/**
-	 * All RAW amplitudes from WAF file
+	 * Waveform peaks of WAV file
 	 */
-	private ArrayList<Short> amplitudes = null;
+	private WaveformPyramid peaks = null;
 
 	/**
 	 * Lists of times when was fired
@@ -75,11 +79,6 @@ public class ReadActivity extends BaseActivity {
 	 */
 	private String filePath = null;
 
-	/**
-	 * Key to retrieve stored amplitudes
-	 */
-	private final String AMPLITUDES_STORED_KEY = "amplitudes";
-
 	/**
 	 * Key to retrieve stored gunShots times
 	 */
@@ -98,9 +97,21 @@ public class ReadActivity extends BaseActivity {
 	private ListView listView;
 
 	/**
-	 * Sample rate in Hz
+	 * Sample rate of analysed samples in Hz, taken from record when its peaks
+	 * are read
+	 */
+	private int analysisRate = CaptureFormat.BASE_SAMPLE_RATE;
+
+	/**
+	 * Mapping of record frames to session time, picture starts with
+	 * pre-roll and gated record joins segments of session
+	 */
+	private SessionTimeline timeline = null;
+
+	/**
+	 * Key to retrieve stored timeline
 	 */
-	private final int SAMPLE_RATE = 44100;
+	private final String TIMELINE_KEY = "timeline";
 
 	/**
 	 * Printer to show sound picture
@@ -108,9 +119,19 @@ public class ReadActivity extends BaseActivity {
 	private AmplitudePrinter printer;
 
 	/**
-	 * Image View where to show amplitude
+	 * GunShot icon for printer
 	 */
-	private ImageView imageView;
+	private Bitmap crosshair;
+
+	/**
+	 * Height of printed picture in px
+	 */
+	private int printerHeight;
+
+	/**
+	 * View where to show amplitude
+	 */
+	private WaveformView waveformView;
 
 	private RecordModel recordModel;
 
@@ -123,7 +144,15 @@ public class ReadActivity extends BaseActivity {
 
 	private CategoryModel categoryModel;
 
-	private ArrayList<Category> categories;
+	/**
+	 * Categories for category picker, without records
+	 */
+	private ArrayList<CategorySummary> categories;
+
+	/**
+	 * Running categories loading
+	 */
+	private AsyncRepository.Request categoriesRequest;
 
 	private AlertDialog noGunShotDialog;
 
@@ -230,33 +259,23 @@ public class ReadActivity extends BaseActivity {
 		this.saveButton = (Button) this.findViewById(R.id.saveResultButton);
 		this.saveButton.setVisibility(View.GONE);
 
-		// prepare ImageView and progressBar for canvas
+		// prepare WaveformView and progressBar for canvas
 		this.progressBar = (ProgressBar) progresDialogView
 				.findViewById(R.id.readingProgressBar);
-		this.imageView = (ImageView) this.findViewById(R.id.imageView1);
-		this.imageView.setVisibility(View.GONE);
+		this.waveformView = (WaveformView) this.findViewById(R.id.waveformView);
+		this.waveformView.setVisibility(View.GONE);
 
 		// prepare shot icon for canvas
-		Bitmap crosshair = BitmapFactory.decodeResource(this.getResources(),
+		this.crosshair = BitmapFactory.decodeResource(this.getResources(),
 				R.drawable.crosshair2);
 
-		// setup display height
+		// setup display height, printer is created when sample rate of
+		// record is known
 		Display display = getWindowManager().getDefaultDisplay();
-
-		int printerSampleRate = this.SAMPLE_RATE;
-		if (this.getResources().getBoolean(R.bool.compression)) {
-			printerSampleRate = printerSampleRate
-					/ this.getResources().getInteger(
-							R.integer.compression_ratio);
-		}
-		this.printer = new AmplitudePrinter(printerSampleRate, crosshair,
-				(display.getHeight() - 80), this.getResources().getInteger(
-						R.integer.max_bitmap_seconds), this.bitmapAmplitudeStretch);
+		this.printerHeight = display.getHeight() - 80;
 
 		// try to get filePath and stored points
 		if (savedInstanceState != null) { // activity is already running
-			this.amplitudes = ((ArrayList<Short>) savedInstanceState
-					.getSerializable(this.AMPLITUDES_STORED_KEY));
 			this.gunShotsTimes = (ArrayList<Float>) savedInstanceState
 					.getSerializable(this.GUNSHOT_TIMES_STORED_KEY);
 			this.gunshotSamples = (ArrayList<Integer>) savedInstanceState
@@ -266,6 +285,8 @@ public class ReadActivity extends BaseActivity {
 
 			this.pictureVisible = savedInstanceState.getBoolean(
 					this.PICTURE_VISIBLE_KEY, true);
+			this.timeline = (SessionTimeline) savedInstanceState
+					.getSerializable(this.TIMELINE_KEY);
 		} else { // new activity intent
 			Bundle extras = this.getIntent().getExtras();
 
@@ -276,6 +297,19 @@ public class ReadActivity extends BaseActivity {
 				this.setActivity(FinalRecordActivity.class, true);
 			} else {
 				this.filePath = extras.getString(this.FILEPATH_FLAG);
+
+				// gunShots found while recording
+				float[] times = extras.getFloatArray(this.GUNSHOT_TIMES_FLAG);
+				int[] samples = extras.getIntArray(this.GUNSHOT_SAMPLES_FLAG);
+				if (times != null && samples != null) {
+					this.gunShotsTimes = new ArrayList<Float>();
+					this.gunshotSamples = new ArrayList<Integer>();
+
+					for (int i = 0; i < times.length; i++) {
+						this.gunShotsTimes.add(times[i]);
+						this.gunshotSamples.add(samples[i]);
+					}
+				}
 			}
 		}
 
@@ -290,12 +324,20 @@ public class ReadActivity extends BaseActivity {
 		int sensitivy = this.preferences.getInt(this.CONFIG_SENSITIVITY_KEY, this.getResources().getInteger(R.integer.gunshot_sensitivity));
 		//int compressionRatio = this.getResources().getInteger(R.integer.compression_ratio);
 		//boolean compression = this.getResources().getBoolean(R.bool.compression);
-		this.task = new RecordReadTask(this.SAMPLE_RATE, this.progressBar,
+		this.task = new RecordReadTask(this.progressBar,
 				this.filePath, this, this.compression, this.compressionRatio,
 				sensitivy);
+		boolean readFile = true;
+		if (this.gunShotsTimes != null && this.gunshotSamples != null) {
+			this.task.setGunshots(this.gunShotsTimes, this.gunshotSamples);
+
+			// picture is not shown, no need to read WAV file, peaks of shown
+			// picture are loaded from stored file
+			readFile = this.pictureVisible;
+		}
 
 		// start asynchronous rendering
-		if (this.amplitudes == null) {
+		if (readFile) {
 			// lock screen orientation
 			this.setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
 
@@ -326,15 +368,15 @@ public class ReadActivity extends BaseActivity {
 			this.publishResult(false);
 		}
 
-		this.registerForContextMenu(this.imageView);
+		this.registerForContextMenu(this.waveformView);
 
 		this.categoryModel = CategoryModel.getInstance(this
 				.getApplicationContext());
-		this.categories = this.categoryModel.getAll();
+		this.loadCategories();
 		
 		
 		// Image view touch listener
-		this.imageView.setOnTouchListener(this.mOnTouch);		
+		this.waveformView.setOnTouchListener(this.mOnTouch);		
 	}
 
 	@Override
@@ -366,12 +408,7 @@ public class ReadActivity extends BaseActivity {
 	protected void onSaveInstanceState(final Bundle outState) {
 		super.onSaveInstanceState(outState);
 
-		if (task != null && this.amplitudes == null) {
-			this.amplitudes = task.getResult();
-		}
-
-		// make amplitudes persistent
-		outState.putSerializable(this.AMPLITUDES_STORED_KEY, this.amplitudes);
+		// make gunShots persistent, peaks are loaded again from stored file
 		outState.putSerializable(this.GUNSHOT_TIMES_STORED_KEY,
 				this.gunShotsTimes);
 		outState.putSerializable(this.GUNSHOT_SAMPLES_STORED_KEY,
@@ -382,6 +419,7 @@ public class ReadActivity extends BaseActivity {
 
 		// save image state
 		outState.putBoolean(this.PICTURE_VISIBLE_KEY, this.pictureVisible);
+		outState.putSerializable(this.TIMELINE_KEY, this.timeline);
 	}
 
 	@Override
@@ -399,9 +437,48 @@ public class ReadActivity extends BaseActivity {
 		}
 	}
 
-	public void setResults(ArrayList<Short> ampl, ArrayList<Float> shotsTime,
-			ArrayList<Integer> samples) {
-		this.amplitudes = ampl;
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+
+		if (this.categoriesRequest != null) {
+			this.categoriesRequest.cancel();
+		}
+	}
+
+	/**
+	 * Load categories for category picker on background
+	 */
+	private void loadCategories() {
+		AsyncRepository<Category> repository = new AsyncRepository<Category>(
+				this.categoryModel);
+
+		this.categoriesRequest = repository.execute(
+				new AsyncRepository.Query<ArrayList<CategorySummary>>() {
+					public ArrayList<CategorySummary> run() {
+						return categoryModel.getSummaries();
+					}
+				}, new AsyncRepository.Callback<ArrayList<CategorySummary>>() {
+					public void onResult(ArrayList<CategorySummary> result) {
+						categoriesRequest = null;
+						categories = result;
+					}
+
+					public void onError(Exception e) {
+						// loading is retried by save button
+						categoriesRequest = null;
+						Toast.makeText(getApplicationContext(),
+								R.string.db_load_error, Toast.LENGTH_LONG)
+								.show();
+						e.printStackTrace();
+					}
+				});
+	}
+
+	public void setResults(WaveformPyramid peaks, ArrayList<Float> shotsTime,
+			ArrayList<Integer> samples, SessionTimeline timeline) {
+		this.peaks = peaks;
+		this.timeline = timeline;
 		this.gunShotsTimes = shotsTime;
 		this.gunshotSamples = samples;
 
@@ -415,7 +492,7 @@ public class ReadActivity extends BaseActivity {
 
 		MenuInflater inflater = getMenuInflater();
 
-		if (R.id.imageView1 == v.getId()) {
+		if (R.id.waveformView == v.getId()) {
 			inflater.inflate(R.menu.context_menu_image, menu);
 		}
 	}
@@ -447,10 +524,6 @@ public class ReadActivity extends BaseActivity {
 	 *            Show dialog if no gunShots found
 	 */
 	private void publishResult(boolean showMessage) {
-		DisplayMetrics metrics = new DisplayMetrics();
-		getWindowManager().getDefaultDisplay().getMetrics(metrics);
-		int screenDensity = metrics.densityDpi;
-		
 		// screen can turn off now
 		this.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
@@ -462,6 +535,7 @@ public class ReadActivity extends BaseActivity {
 			if (Environment.MEDIA_MOUNTED.equals(state)) { // SD card is ready
 				File file = new File(this.filePath);						
 				file.delete();
+				WaveformPyramid.getPeaksFile(this.filePath).delete();
 				
 				boolean saveToMusicDir = this.preferences.getBoolean(this.SAVE_INTO_MUSIC_FOLDER, this.getResources().getBoolean(R.bool.record_into_music_folder));			
 				// remove sound from Media index
@@ -478,11 +552,22 @@ public class ReadActivity extends BaseActivity {
 		toast.show();
 
 		// show picture
-		if (this.pictureVisible) {
-			Bitmap picture = this.printer.printAmplitudes(this.amplitudes,
-					this.gunshotSamples, screenDensity);
-			this.imageView.setImageBitmap(picture);
-			this.imageView.setVisibility(View.VISIBLE);
+		if (this.pictureVisible && this.peaks != null) {
+			// analysis rate the same as in RecordReadTask
+			int ratio = 1;
+			if (this.compression) {
+				ratio = CaptureFormat.scaleCompressionRatio(
+						this.compressionRatio, this.peaks.getSampleRate());
+			}
+			this.analysisRate = this.peaks.getSampleRate() / ratio;
+
+			this.printer = new AmplitudePrinter(this.analysisRate,
+					this.crosshair, this.printerHeight,
+					this.bitmapAmplitudeStretch);
+			this.printer.setAmplitudes(this.peaks, this.gunshotSamples,
+					this.timeline);
+			this.waveformView.setPrinter(this.printer);
+			this.waveformView.setVisibility(View.VISIBLE);
 		}
 
 		// setup GunShots into list
@@ -536,6 +621,16 @@ public class ReadActivity extends BaseActivity {
 	 */
 	private View.OnClickListener saveButtonClickListener = new View.OnClickListener() {
 		public void onClick(View v) {
+			// categories are not loaded yet, failed loading is repeated
+			if (categories == null) {
+				Toast.makeText(getApplicationContext(),
+						R.string.categories_loading, Toast.LENGTH_SHORT).show();
+				if (categoriesRequest == null) {
+					loadCategories();
+				}
+				return;
+			}
+
 			// long categoryId = 1;
 			// create category picker dialog
 			AlertDialog.Builder builder = new AlertDialog.Builder(
@@ -598,7 +693,8 @@ public class ReadActivity extends BaseActivity {
 	 * Hide picture
 	 */
 	private void hidePicture() {
-		this.imageView.setVisibility(View.GONE);
+		this.waveformView.setVisibility(View.GONE);
+		this.waveformView.clearTiles();
 		this.pictureVisible = false;
 
 		if (this.gunShotsTimes.size() == 0) {
@@ -678,12 +774,9 @@ public class ReadActivity extends BaseActivity {
 		       case MotionEvent.ACTION_DOWN: 
 		          int x = (int) event.getX();
 		          
-		          if(compression){									
-		        	  clickedTime = (float)x / (((float)SAMPLE_RATE / (float)compressionRatio) / (float)bitmapAmplitudeStretch);							
-					}		
-					else{
-						clickedTime = (float)x / ((float)SAMPLE_RATE / (float)bitmapAmplitudeStretch);
-					}
+		          if (printer != null) {
+		              clickedTime = printer.getColumnTime(x);
+		          }
 		          
 		          Log.i("clicked time: ", "" + clickedTime);
 		       break;
@@ -1,21 +1,31 @@
 package tic0012.loselessoundrecord;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import tic0012.loselessoundrecord.classes.Category;
 import tic0012.loselessoundrecord.classes.CategoryListAdapter;
+import tic0012.loselessoundrecord.classes.CategorySummary;
 import tic0012.loselessoundrecord.classes.Record;
+import tic0012.loselessoundrecord.model.AsyncRepository;
 import tic0012.loselessoundrecord.model.CannotDeleteException;
 import tic0012.loselessoundrecord.model.CategoryModel;
 import tic0012.loselessoundrecord.model.DBException;
 import tic0012.loselessoundrecord.model.RecordModel;
 import tic0012.loselessoundrecord.model.SDCardException;
+import tic0012.loselessoundrecord.model.BinaryExportWriter;
+import tic0012.loselessoundrecord.model.CsvExportWriter;
+import tic0012.loselessoundrecord.model.ExportTask;
+import tic0012.loselessoundrecord.model.ExportWriter;
+import tic0012.loselessoundrecord.model.JsonExportWriter;
+import tic0012.loselessoundrecord.model.XmlExportWriter;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
 import android.app.AlertDialog;
+import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.text.format.DateFormat;
@@ -28,7 +38,6 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.EditText;
-import android.widget.ExpandableListAdapter;
 import android.widget.ExpandableListView;
 import android.widget.Toast;
 import android.widget.ExpandableListView.ExpandableListContextMenuInfo;
@@ -46,16 +55,36 @@ public class StoredActivity extends BaseActivity {
 	/**
 	 * Category adapter for expandable list
 	 */
-	private ExpandableListAdapter mAdapter;
+	private CategoryListAdapter mAdapter;
 
 	private CategoryModel categoryModel;
 
 	private RecordModel recordModel;
 
 	/**
-	 * All categories
+	 * Categories loading off main thread
 	 */
-	private ArrayList<Category> categories;
+	private AsyncRepository<Category> categoryRepository;
+
+	/**
+	 * Running categories loading
+	 */
+	private AsyncRepository.Request loadRequest;
+
+	/**
+	 * Records deleting and loading off main thread
+	 */
+	private AsyncRepository<Record> recordRepository;
+
+	/**
+	 * Running record deleting
+	 */
+	private AsyncRepository.Request removeRequest;
+
+	/**
+	 * Running loading of record to share
+	 */
+	private AsyncRepository.Request shareRequest;
 
 	/**
 	 * Categories ListView
@@ -71,6 +100,16 @@ public class StoredActivity extends BaseActivity {
 	 * Folder where save XML export
 	 */
 	private String EXPORT_DIR;
+
+	/**
+	 * Running export
+	 */
+	private ExportTask exportTask;
+
+	/**
+	 * Dialog for export progress
+	 */
+	private ProgressDialog exportDialog;
 	
 
 	@Override
@@ -85,14 +124,41 @@ public class StoredActivity extends BaseActivity {
 				.getApplicationContext());
 		this.recordModel = RecordModel
 				.getInstance(this.getApplicationContext());
-		this.categories = this.categoryModel.getAll();
+		this.categoryRepository = new AsyncRepository<Category>(
+				this.categoryModel);
+		this.recordRepository = new AsyncRepository<Record>(this.recordModel);
 
-		// set data into list
+		// show empty list until categories are loaded
 		this.setUpView();
+		this.loadCategories();
 
 		this.registerForContextMenu(this.listView);
 	}
 
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+
+		if (this.loadRequest != null) {
+			this.loadRequest.cancel();
+		}
+
+		if (this.removeRequest != null) {
+			this.removeRequest.cancel();
+		}
+
+		if (this.shareRequest != null) {
+			this.shareRequest.cancel();
+		}
+
+		if (this.exportTask != null) {
+			this.exportTask.cancel(false);
+		}
+
+		// close categories and records cursors
+		this.mAdapter.changeCursor(null);
+	}
+
 	@Override
 	/**
 	 * Create context menus
@@ -131,7 +197,7 @@ public class StoredActivity extends BaseActivity {
 			switch (item.getItemId()) {
 			case R.id.context_menu_delete:
 				try {
-					this.categoryModel.remove(this.categories.get(groupPos));
+					this.categoryModel.remove(this.getCategory(groupPos));
 					this.refreshView();
 				} catch (CannotDeleteException e) {
 					Toast toast = Toast.makeText(this.getApplicationContext(),
@@ -152,18 +218,15 @@ public class StoredActivity extends BaseActivity {
 		else if (itemType == ExpandableListView.PACKED_POSITION_TYPE_CHILD) {
 			childPos = ExpandableListView
 					.getPackedPositionChild(info.packedPosition);
+			long recordId = this.mAdapter.getChildId(groupPos, childPos);
 
 			switch (item.getItemId()) {
 			case R.id.context_menu_delete:
-				this.recordModel.remove(this.categories.get(groupPos).records
-						.get(childPos));
-				this.refreshView();
-
+				this.removeRecord(recordId);
 				return true;
 
 			case R.id.context_menu_record_share:
-				this.shareGunshots(this.categories.get(groupPos).records
-						.get(childPos));
+				this.shareGunshots(recordId);
 				return true;
 			default:
 				return super.onContextItemSelected(item);
@@ -210,64 +273,129 @@ public class StoredActivity extends BaseActivity {
 			return true;
 
 		case R.id.menu_category_xml_export:
+			this.export(new XmlExportWriter(), R.string.xml_export);
+			return true;
 
-			try {
-				String state = Environment.getExternalStorageState();
-				if (!Environment.MEDIA_MOUNTED.equals(state)) {
-					throw new SDCardException();
-				}
-
-				String filePath = Environment.getExternalStorageDirectory()
-						.getAbsolutePath()
-						+ "/"
-						+ this.EXPORT_DIR
-						+ "/"
-						+ DateFormat.format("dd_MM_yyyy_export", new Date())
-						+ ".xml";
-
-				// check for folder
-				File folder = new File(Environment
-						.getExternalStorageDirectory().getAbsolutePath()
-						+ "/"
-						+ this.EXPORT_DIR);
-				if (!folder.exists()) {
-					folder.mkdirs();
-				}
+		case R.id.menu_category_csv_export:
+			this.export(new CsvExportWriter(), R.string.csv_export);
+			return true;
 
-				this.categoryModel.exportToXML(filePath);
+		case R.id.menu_category_json_export:
+			this.export(new JsonExportWriter(), R.string.json_export);
+			return true;
 
-				Intent intent = new Intent();
-				File file = new File(filePath);
-				intent.setAction(android.content.Intent.ACTION_SEND);
-				intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
-				intent.setType("text/xml");
-				startActivity(intent);
+		case R.id.menu_category_binary_export:
+			this.export(new BinaryExportWriter(), R.string.binary_export);
+			return true;
+		}
 
-			} catch (SDCardException e) {
-				Toast.makeText(this.getApplicationContext(),
-						R.string.no_sd_card, Toast.LENGTH_LONG).show();
+		return super.onOptionsItemSelected(item);
+	}
 
-				e.printStackTrace();
-			} catch (IOException e) {
-				Toast toast = Toast.makeText(getApplicationContext(),
-						R.string.xml_export_error, Toast.LENGTH_SHORT);
-				toast.show();
+	/**
+	 * Export all categories into export folder on SD card
+	 * 
+	 * @param writer
+	 *            export format
+	 * @param titleId
+	 *            title of progress dialog
+	 */
+	private void export(ExportWriter writer, int titleId) {
+		try {
+			String state = Environment.getExternalStorageState();
+			if (!Environment.MEDIA_MOUNTED.equals(state)) {
+				throw new SDCardException();
+			}
 
-				e.printStackTrace();
+			String filePath = Environment.getExternalStorageDirectory()
+					.getAbsolutePath()
+					+ "/"
+					+ this.EXPORT_DIR
+					+ "/"
+					+ DateFormat.format("dd_MM_yyyy_export", new Date())
+					+ "." + writer.getExtension();
+
+			// check for folder
+			File folder = new File(Environment
+					.getExternalStorageDirectory().getAbsolutePath()
+					+ "/"
+					+ this.EXPORT_DIR);
+			if (!folder.exists()) {
+				folder.mkdirs();
 			}
 
-			return true;
+			this.startExport(writer, filePath, titleId);
+
+		} catch (SDCardException e) {
+			Toast.makeText(this.getApplicationContext(),
+					R.string.no_sd_card, Toast.LENGTH_LONG).show();
+
+			e.printStackTrace();
 		}
+	}
 
-		return super.onOptionsItemSelected(item);
+	/**
+	 * Start export on background, progress dialog cancels it
+	 * 
+	 * @param writer
+	 * @param filePath
+	 * @param titleId
+	 */
+	private void startExport(ExportWriter writer, String filePath, int titleId) {
+		if (this.exportTask != null
+				&& this.exportTask.getStatus() != AsyncTask.Status.FINISHED) {
+			return;
+		}
+
+		this.exportDialog = new ProgressDialog(this);
+		this.exportDialog.setTitle(titleId);
+		this.exportDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		this.exportDialog.setCancelable(true);
+		this.exportDialog
+				.setOnCancelListener(new DialogInterface.OnCancelListener() {
+					public void onCancel(DialogInterface dialog) {
+						if (exportTask != null) {
+							exportTask.cancel(false);
+						}
+					}
+				});
+
+		this.exportTask = new ExportTask(this.categoryModel, writer,
+				filePath, this.exportDialog, this);
+		this.exportTask.execute();
+	}
+
+	/**
+	 * Export done, share exported file
+	 * 
+	 * @param filePath
+	 * @param mimeType
+	 * @param success
+	 *            false if export failed
+	 */
+	public void exportFinished(String filePath, String mimeType,
+			boolean success) {
+		if (!success) {
+			Toast toast = Toast.makeText(getApplicationContext(),
+					R.string.export_error, Toast.LENGTH_SHORT);
+			toast.show();
+
+			return;
+		}
+
+		Intent intent = new Intent();
+		File file = new File(filePath);
+		intent.setAction(android.content.Intent.ACTION_SEND);
+		intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
+		intent.setType(mimeType);
+		startActivity(intent);
 	}
 
 	/**
 	 * Fill ListView
 	 */
 	private void setUpView() {
-		mAdapter = new CategoryListAdapter(this.categories,
-				this.getApplicationContext());
+		mAdapter = new CategoryListAdapter(null, this.getApplicationContext());
 
 		this.listView = (ExpandableListView) findViewById(R.id.CategoryList);
 		this.listView.setOnChildClickListener(this.childClickListener);		
@@ -279,19 +407,126 @@ public class StoredActivity extends BaseActivity {
 	 * Refresh List View
 	 */
 	private void refreshView() {
-		this.categories = this.categoryModel.getAll();
-		this.setUpView();
+		this.loadCategories();
+	}
+
+	/**
+	 * Get category of group without records
+	 * 
+	 * @param groupPosition
+	 * @return
+	 */
+	private Category getCategory(int groupPosition) {
+		CategorySummary summary = this.mAdapter.getCategory(groupPosition);
+
+		return this.categoryModel.categoryFactory(summary.getId(),
+				summary.name, new ArrayList<Record>());
+	}
+
+	/**
+	 * Query categories cursor on background and fill ListView with it,
+	 * records are queried when category is expanded
+	 */
+	private void loadCategories() {
+		if (this.loadRequest != null) {
+			this.loadRequest.cancel();
+		}
+
+		this.loadRequest = this.categoryRepository.execute(
+				new AsyncRepository.ReleasableQuery<Cursor>() {
+					public Cursor run() {
+						Cursor cursor = categoryModel.getSummaryCursor();
+						// fill first window of cursor off main thread
+						cursor.getCount();
+
+						return cursor;
+					}
+
+					public void release(Cursor result) {
+						// load was cancelled or replaced by newer one
+						result.close();
+					}
+				}, new AsyncRepository.Callback<Cursor>() {
+					public void onResult(Cursor result) {
+						// old cursor is closed by adapter
+						mAdapter.changeCursor(result);
+					}
+
+					public void onError(Exception e) {
+						e.printStackTrace();
+					}
+				});
+	}
+
+	/**
+	 * Delete record by id on background and refresh ListView
+	 * 
+	 * @param recordId
+	 */
+	private void removeRecord(final long recordId) {
+		this.removeRequest = this.recordRepository.execute(
+				new AsyncRepository.Query<Boolean>() {
+					public Boolean run() {
+						return recordModel.remove(recordId);
+					}
+				}, new AsyncRepository.Callback<Boolean>() {
+					public void onResult(Boolean result) {
+						refreshView();
+					}
+
+					public void onError(Exception e) {
+						e.printStackTrace();
+
+						Toast.makeText(getApplicationContext(),
+								R.string.db_delete_error, Toast.LENGTH_SHORT)
+								.show();
+					}
+				});
+	}
+
+	/**
+	 * Load record with its gunShots on background and share them
+	 * 
+	 * @param recordId
+	 */
+	private void shareGunshots(final long recordId) {
+		if (this.shareRequest != null) {
+			this.shareRequest.cancel();
+		}
+
+		this.shareRequest = this.recordRepository.execute(
+				new AsyncRepository.Query<String>() {
+					public String run() {
+						Record record = recordModel.get(recordId);
+
+						return record == null ? null : recordModel
+								.getShareText(record);
+					}
+				}, new AsyncRepository.Callback<String>() {
+					public void onResult(String result) {
+						if (result != null) {
+							shareGunshots(result);
+						}
+					}
+
+					public void onError(Exception e) {
+						e.printStackTrace();
+					}
+				});
 	}
 
 	/**
 	 * Share gunShots
+	 * 
+	 * @param shareText
+	 *            text of record from RecordModel.getShareText
 	 */
-	private void shareGunshots(Record record) {
+	private void shareGunshots(String shareText) {
 		Intent sharingIntent = new Intent(android.content.Intent.ACTION_SEND);
 		sharingIntent.setType("text/plain");
 		String shareBody = this.getResources().getString(R.string.my_gunshots)
 				+ " " + this.getResources().getString(R.string.from) + " "
-				+ this.recordModel.getShareText(record);
+				+ shareText;
 		sharingIntent.putExtra(android.content.Intent.EXTRA_SUBJECT, this
 				.getResources().getString(R.string.my_gunshots));
 
@@ -308,7 +543,7 @@ public class StoredActivity extends BaseActivity {
 	 * @param index
 	 */
 	private void dialogCategoryEdit(int index) {
-		categoryEdit = this.categories.get(index);
+		categoryEdit = this.getCategory(index);
 		AlertDialog.Builder categoryEditDialog = new AlertDialog.Builder(this);
 
 		categoryEditDialog.setTitle(R.string.title_activity_category_edit);
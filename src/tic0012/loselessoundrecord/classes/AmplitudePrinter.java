@@ -1,44 +1,44 @@
 package tic0012.loselessoundrecord.classes;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Rect;
 import android.util.Log;
 
 /**
- * Prints sound amplitude into bitmap
+ * Prints sound amplitude into bitmap tiles
  * 
  * @author tic0012, Michal Tich
  */
 public class AmplitudePrinter {
 
 	/**
-	 * All RAW amplitudes from WAF file
+	 * Waveform peaks of WAV file
 	 */
-	private ArrayList<Short> amplitudes;
+	private WaveformPyramid peaks;
 	
 	/**
-	 * List of gunShots indexes(sample number)
+	 * Sorted columns of gunShots
 	 */
-	private ArrayList<Integer> gunShotSamples;
+	private int[] shotColumns = new int[0];
 	
 	/**
-	 * Number of RAW amplitudes, which will be stretch into one
+	 * Number of amplitudes after compression, which will be stretch into one
 	 */
 	private int amplStretch = 60;
 	
 	/**
-	 * Sample rate in Hz
+	 * Sample rate after compression in Hz
 	 */
 	private int sampleRate;
 	
 	/**
-	 * Default width of bitmap in px
+	 * Width of whole picture in px
 	 */
-	private int imgWidth = 340;
+	private int imgWidth;
 	
 	/**
 	 * Image canvas height in px
@@ -62,239 +62,314 @@ public class AmplitudePrinter {
 	private final short SHORT_MIN = -32768;
 	
 	/**
-	 * Max bitmap length in seconds
+	 * Mapping of file frames to session time used for labels
 	 */
-	private int maxBitmapSeconds;		
+	private SessionTimeline timeline;
+	
+	/**
+	 * Number of source samples in one column
+	 */
+	private int columnSamples;
+	
+	/**
+	 * Pyramid level used for drawing
+	 */
+	private int level;
+	
+	/**
+	 * Space left of half second line or segment join, where its label can
+	 * reach, in px
+	 */
+	private final int LABEL_WIDTH = 60;
+	
+	private Paint greyPaint;
+	private Paint bluePaint;
+	private Paint whitePaint;
+	private Paint joinPaint;
+	
+	/**
+	 * Line vertices of amplitude columns, x0, y0, x1, y1 for each column
+	 */
+	private float[] columnLines = new float[0];
+	
+	/**
+	 * Line vertices of half second lines
+	 */
+	private float[] secondLines = new float[0];
+	
+	/**
+	 * Line vertices of segment joins of event gated record
+	 */
+	private float[] joinLines = new float[0];
+	
+	/**
+	 * Peak of one column, [0] => minimum, [1] => maximum
+	 */
+	private short[] peak = new short[2];
 	
 	public AmplitudePrinter(			
 			int sampleRate,
 			Bitmap icon,
 			int imgHeight,
-			int maxBitmapSeconds,
 			int amplStretch
 			){
 				
 		this.sampleRate = sampleRate;
 		this.shotIcon = icon;
 		this.imgHeight = imgHeight;		
-		this.maxBitmapSeconds = maxBitmapSeconds;		
 		this.amplStretch = amplStretch;
+		this.imgWidth = 0;
+		
+		// colors prepare
+		this.greyPaint = new Paint();
+		this.bluePaint = new Paint();
+		this.whitePaint = new Paint();
+		this.joinPaint = new Paint();
+		this.greyPaint.setColor(Color.LTGRAY);
+		this.bluePaint.setColor(0xff4A73F1);
+		this.whitePaint.setColor(Color.WHITE);
+		this.joinPaint.setColor(0xffF14A4A);
 	}
 	
 	/**
-	 * Print points into bitmap
+	 * Set peaks and gunShots to print
 	 * 
-	 * @param All amplitudes
-	 * @return bitmap with points
+	 * @param peaks
+	 *            waveform peaks of whole file
+	 * @param shotsIndex
+	 *            gunShots indexes in samples after compression
+	 * @param timeline
+	 *            session time of file frames, null if file starts at
+	 *            recording start and holds whole session
 	 */
-	public Bitmap printAmplitudes(ArrayList<Short> amplitudes, ArrayList<Integer> shotsIndex, int screenDensity) {
-		this.amplitudes = amplitudes;
-		this.gunShotSamples = shotsIndex;
-		ArrayList<Float[]> amplToPrint = this.prepareAmplitude(this.amplitudes);					
-		float startX, startY, stopX, stopY, halfSec;
-		int loopCount;
-		int halfSecondAmplCount;
-		
-		Log.d("samples count", "" + amplitudes.size());
+	public void setAmplitudes(WaveformPyramid peaks,
+			ArrayList<Integer> shotsIndex, SessionTimeline timeline) {
+		this.peaks = peaks;
+		this.timeline = timeline;
+		if (this.timeline == null) {
+			this.timeline = new SessionTimeline(peaks.getSampleRate(), 0,
+					null, null);
+		}
 		
-		halfSecondAmplCount = ((this.sampleRate / this.amplStretch) / 2);
-		int maxAmplCount = this.maxBitmapSeconds * halfSecondAmplCount * 2;
+		// gunShots sorted by column for merge with printed columns
+		this.shotColumns = new int[shotsIndex.size()];
+		for (int i = 0; i < this.shotColumns.length; i++) {
+			this.shotColumns[i] = shotsIndex.get(i) / this.amplStretch;
+		}
+		Arrays.sort(this.shotColumns);
 		
-		Log.d("hlf second", "" + halfSecondAmplCount);
+		// source samples in one column
+		this.columnSamples = (int) ((long) this.amplStretch
+				* peaks.getSampleRate() / this.sampleRate);
+		this.imgWidth = (int) (peaks.getSampleCount() / this.columnSamples);
+		this.level = peaks.getLevel(this.columnSamples);
 		
-		// set maximum bitmap size
-		if(amplToPrint.size() > maxAmplCount){
-			this.imgWidth = maxAmplCount;
-		}
-		else{
-			this.imgWidth = amplToPrint.size();
-		}		
-
+		Log.d("samples count", "" + peaks.getSampleCount());
 		Log.d("img width", "" + this.imgWidth);
-
-		Bitmap bmp = Bitmap.createBitmap(this.imgWidth, this.imgHeight,
+	}
+	
+	/**
+	 * Width of whole picture in px, one column for each amplStretch samples
+	 * 
+	 * @return
+	 */
+	public int getWidth() {
+		return this.imgWidth;
+	}
+	
+	/**
+	 * Time of column in session from recording start
+	 * 
+	 * @param column
+	 * @return time in seconds, negative in pre-roll
+	 */
+	public float getColumnTime(int column) {
+		return this.timeline.toSessionTime((long) column * this.columnSamples);
+	}
+	
+	/**
+	 * Height of picture in px
+	 * 
+	 * @return
+	 */
+	public int getHeight() {
+		return this.imgHeight;
+	}
+	
+	/**
+	 * Print part of picture into new bitmap
+	 * 
+	 * @param firstColumn
+	 *            first printed column
+	 * @param width
+	 *            number of printed columns
+	 * @param density
+	 *            bitmap density
+	 * @return bitmap with points
+	 */
+	public Bitmap printTile(int firstColumn, int width, int density) {
+		Bitmap bmp = Bitmap.createBitmap(width, this.imgHeight,
 				Bitmap.Config.RGB_565);
 		
-		bmp.setDensity(screenDensity);
-		Canvas canvas = new Canvas(bmp);
-
-		// colors prepare
-		Paint greyPaint = new Paint();
-		Paint blackPaint = new Paint();
-		Paint bluePaint = new Paint();
-		greyPaint.setColor(Color.LTGRAY);
-		blackPaint.setColor(Color.BLACK);
-		bluePaint.setColor(0xff4A73F1);
-		Paint whitePaint = new Paint();
-		whitePaint.setColor(Color.WHITE);
-
+		bmp.setDensity(density);
+		this.printColumns(new Canvas(bmp), firstColumn, width);
+		
+		return bmp;
+	}
+	
+	/**
+	 * Print columns into canvas, firstColumn is printed at x = 0
+	 * 
+	 * @param canvas
+	 * @param firstColumn
+	 *            first printed column
+	 * @param width
+	 *            number of printed columns
+	 */
+	public void printColumns(Canvas canvas, int firstColumn, int width) {
+		int lastColumn = firstColumn + width;
+		float zeroY = this.imgHeight / 2;
+		int count;
+		
 		// set canvas BG color
-		canvas.drawRect(new Rect(0, 0, this.imgWidth, this.imgHeight), whitePaint);
-
-		// print amplitude into image
-		halfSec = startX = startY = loopCount = 0;
-
-		//for (Float[] point : amplToPrint) {
-		Float[] point;
-		for (int i = 0; i < this.imgWidth; i++) {			
-			point = amplToPrint.get(i);
-			// draw half second vertical line
-			if ((loopCount % halfSecondAmplCount) == 0) {
-				canvas.drawLine(loopCount, this.imgHeight, loopCount, 0, greyPaint);
-				canvas.drawText("" + halfSec, loopCount + 7, this.imgHeight - 10,
-						greyPaint);
-				halfSec += 0.5;
-				Log.d("seconds ", halfSec + "");
-			}
-
-			stopX = loopCount;
-			stopY = this.imgHeight / 2;
+		canvas.drawRect(0, 0, width, this.imgHeight, this.whitePaint);
+		
+		// draw vertical lines where session time crosses half second and
+		// where segments of gated record join, label of line before tile can
+		// reach into it
+		int lineColumn = Math.max(0, firstColumn - this.LABEL_WIDTH);
+		int linesCount = lastColumn - lineColumn;
+		if (this.secondLines.length < 4 * linesCount) {
+			this.secondLines = new float[4 * linesCount];
+			this.joinLines = new float[4 * linesCount];
+		}
+		
+		count = 0;
+		int joinCount = 0;
+		int half = this.getHalfSecond(lineColumn - 1);
+		for (; lineColumn < lastColumn; lineColumn++) {
+			int x = lineColumn - firstColumn;
+			long from = (long) lineColumn * this.columnSamples;
+			int segment = this.timeline.segmentStartingIn(from
+					- this.columnSamples + 1, from + 1);
+			int columnHalf = this.getHalfSecond(lineColumn);
 			
-			// Draw positive part
-			if(point[0] != 0){				
-				stopY = (this.imgHeight - point[0]) - (this.imgHeight / 2);
-
-				if (loopCount == 0) {
-					startY = stopY;
-				}
-
-				// draw positive amplitude part
-				canvas.drawLine(startX, startY, stopX, stopY, bluePaint);
+			if (segment >= 0) {
+				// join is labelled by session time of segment start
+				float time = Math.round(this.timeline
+						.getSegmentTime(segment) * 10) / 10f;
+				
+				this.joinLines[joinCount++] = x;
+				this.joinLines[joinCount++] = this.imgHeight;
+				this.joinLines[joinCount++] = x;
+				this.joinLines[joinCount++] = 0;
+				canvas.drawText(Float.toString(time), x + 7,
+						this.imgHeight - 10, this.joinPaint);
+			} else if (columnHalf != half) {
+				this.secondLines[count++] = x;
+				this.secondLines[count++] = this.imgHeight;
+				this.secondLines[count++] = x;
+				this.secondLines[count++] = 0;
+				canvas.drawText(Float.toString(columnHalf * 0.5f), x + 7,
+						this.imgHeight - 10, this.greyPaint);
 			}
-						
-			// Draw negative part
-			if(point[1] != 0){
-				stopY = (this.imgHeight - point[1]) - (this.imgHeight / 2);
-
-				if (loopCount == 0) {
-					startY = stopY;
-				}
-
-				// draw negative amplitude part
-				canvas.drawLine(startX, startY, stopX, stopY, bluePaint);
-			}			
-
-			// draw shot icon
-			for (int shot : this.gunShotSamples) {
-				if ((shot / this.amplStretch) == loopCount) {
-
-					canvas.drawBitmap(this.shotIcon,
-							(loopCount - ( 2 * this.shotIcon.getWidth())), 0, null);
-				}
+			half = columnHalf;
+		}
+		canvas.drawLines(this.secondLines, 0, count, this.greyPaint);
+		canvas.drawLines(this.joinLines, 0, joinCount, this.joinPaint);
+		
+		// print amplitude into image, column from minimum to maximum
+		if (this.columnLines.length < 4 * width) {
+			this.columnLines = new float[4 * width];
+		}
+		
+		count = 0;
+		for (int column = firstColumn; column < lastColumn; column++) {
+			long from = (long) column * this.columnSamples;
+			
+			if (this.peaks.getPeak(this.level, from, from + this.columnSamples, this.peak)) {
+				int x = column - firstColumn;
+				
+				this.columnLines[count++] = x;
+				this.columnLines[count++] = zeroY - this.convertAmplSize(this.peak[1]);
+				this.columnLines[count++] = x;
+				this.columnLines[count++] = zeroY - this.convertAmplSize(this.peak[0]);
 			}
-
-			startX = loopCount;
-			startY = stopY;
-			loopCount++;
 		}
+		canvas.drawLines(this.columnLines, 0, count, this.bluePaint);
 		
-		for (int i = 0; i < this.imgWidth; i++) {
+		// draw shot icons, icon is left of its column, sorted shots are
+		// merged with printed columns from first reaching into tile
+		int iconWidth = this.shotIcon.getWidth();
+		int iconOffset = 2 * iconWidth;
+		int shot = this.firstShot(firstColumn + iconOffset - iconWidth + 1);
+		for (; shot < this.shotColumns.length; shot++) {
+			int x = this.shotColumns[shot] - iconOffset - firstColumn;
+			
+			if (x >= width) {
+				break;
+			}
 			
+			canvas.drawBitmap(this.shotIcon, x, 0, null);
 		}
 
 		// draw zero horizontal line
-		canvas.drawLine(0, (this.imgHeight / 2), this.imgWidth, (this.imgHeight / 2),
-				greyPaint);
-
-		return bmp;
+		canvas.drawLine(0, zeroY, width, zeroY, this.greyPaint);
 	}
 	
 	/**
-	 * Prepare amplitudes to print
+	 * Number of half seconds in session reached at column start
 	 * 
-	 * @param amplitudes
+	 * @param column
 	 * @return
 	 */
-	private ArrayList<Float[]> prepareAmplitude(ArrayList<Short> amplitudes){
-		ArrayList<Float> tempPoints = new ArrayList<Float>();
-		ArrayList<Float[]> result = new ArrayList<Float[]>();
-		short loopCount = 0;
-
-		// get average amplitudes
-		for (float point : this.convertAmplSize(amplitudes)) {
-			tempPoints.add(point);
-
-			if (loopCount == this.amplStretch) {
-				Float average[] = this.countAverage(tempPoints);
-
-				result.add(average);
-
-				tempPoints.clear();
-
-				loopCount = -1;
-			}
-
-			loopCount++;
-		}
-		
-		return result;
+	private int getHalfSecond(int column) {
+		return (int) Math.floor(this.getColumnTime(column) * 2);
 	}
 	
 	/**
-	 * Transform amplitude size to image size
+	 * Find first gunShot in column or behind it
 	 * 
-	 * @param points
-	 * @return
+	 * @param column
+	 * @return index into shotColumns
 	 */
-	private ArrayList<Float> convertAmplSize(ArrayList<Short> points) {
-		ArrayList<Float> result = new ArrayList<Float>();
-		float result1, result2;
-
-		for (short ampl : points) {
-			if (ampl > 0) {
-				result1 = ampl / (this.SHORT_MAX / 100);
-				result2 = (float) Math.ceil(((imgHeight / 2) / 100) * result1);
-			} else if (ampl < 0) {
-				result1 = ampl / (this.SHORT_MIN / 100);
-				result2 = (float) Math.floor(((imgHeight / 2) / 100) * result1);
-				result2 -= 2 * result2;
+	private int firstShot(int column) {
+		int low = 0;
+		int high = this.shotColumns.length;
+		
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			
+			if (this.shotColumns[middle] < column) {
+				low = middle + 1;
 			} else {
-				result2 = 0;
+				high = middle;
 			}
-
-			result.add(result2);
 		}
-
-		return result;
+		
+		return low;
 	}
 	
 	/**
-	 * Count average of number list
+	 * Transform amplitude size to image size
 	 * 
-	 * @param points
-	 * @return list of arrays, 0 => positive average, 1 => negative average
+	 * @param ampl
+	 * @return
 	 */
-	private Float[] countAverage(ArrayList<Float> points) {
-		float positiveAverage = 0, negativeAverage = 0;
-		int positiveCount = 0, negativeCount = 0;				
-		Float[] average = new Float[2];
+	private float convertAmplSize(short ampl) {
+		float result1, result2;
 
-		// setup points
-		for (float point : points) {
-			if(point > 0){ // positive amplitude
-				positiveAverage += point;
-				positiveCount++;
-			}
-			else{ // negative amplitude
-				negativeAverage += point;
-				negativeCount++;
-			}			
-		}
-		
-		if(positiveCount == 0){
-			average[0] = Float.valueOf(0);
-		}
-		else{
-			average[0] = positiveAverage / positiveCount;
-		}
-		
-		if(negativeAverage == 0){
-			average[1] = Float.valueOf(0);
+		if (ampl > 0) {
+			result1 = ampl / (this.SHORT_MAX / 100);
+			result2 = (float) Math.ceil(((imgHeight / 2) / 100) * result1);
+		} else if (ampl < 0) {
+			result1 = ampl / (this.SHORT_MIN / 100);
+			result2 = (float) Math.floor(((imgHeight / 2) / 100) * result1);
+			result2 -= 2 * result2;
+		} else {
+			result2 = 0;
 		}
-		else{
-			average[1] = negativeAverage / negativeCount;	
-		}				
 
-		return average;
+		return result2;
 	}
 }
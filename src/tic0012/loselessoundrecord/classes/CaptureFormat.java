@@ -0,0 +1,203 @@
+package tic0012.loselessoundrecord.classes;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+
+/**
+ * 16bit PCM capture format, sample rate and number of channels. Format is
+ * negotiated against AudioRecord, unsupported formats fall back to ones the
+ * device accepts.
+ * 
+ * @author tic0012, Michal Tich
+ */
+public class CaptureFormat {
+
+	/**
+	 * Supported sample rates in Hz, from highest
+	 */
+	public static final int[] SAMPLE_RATES = { 48000, 44100, 22050, 16000 };
+
+	/**
+	 * Sample rate guaranteed to work on all devices, analysis settings are
+	 * tuned for it
+	 */
+	public static final int BASE_SAMPLE_RATE = 44100;
+
+	/**
+	 * Number of bits per sample
+	 */
+	public static final int BITS_PER_SAMPLE = 16;
+
+	/**
+	 * Default format, 44 100 Hz mono
+	 */
+	public static final CaptureFormat DEFAULT = new CaptureFormat(
+			BASE_SAMPLE_RATE, 1);
+
+	/**
+	 * Sample rate in Hz
+	 */
+	private int sampleRate;
+
+	/**
+	 * Number of channels, 1 = mono, 2 = stereo
+	 */
+	private int channels;
+
+	/**
+	 * @param sampleRate
+	 *            sample rate in Hz
+	 * @param channels
+	 *            1 = mono, 2 = stereo
+	 */
+	public CaptureFormat(int sampleRate, int channels) {
+		if (channels < 1 || channels > 2) {
+			throw new IllegalArgumentException("Only mono or stereo is supported");
+		}
+		
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+	}
+
+	/**
+	 * Find format closest to requested one, which device can record. Requested
+	 * sample rate is tried first, then other rates from closest. Stereo falls
+	 * back to mono.
+	 * 
+	 * @param requested
+	 * @return supported format, DEFAULT if none is found
+	 */
+	public static CaptureFormat negotiate(CaptureFormat requested) {
+		// supported rates sorted by distance from requested one
+		int[] rates = SAMPLE_RATES.clone();
+		for (int i = 1; i < rates.length; i++) {
+			for (int j = i; j > 0
+					&& Math.abs(rates[j] - requested.sampleRate) < Math
+							.abs(rates[j - 1] - requested.sampleRate); j--) {
+				int swap = rates[j];
+				rates[j] = rates[j - 1];
+				rates[j - 1] = swap;
+			}
+		}
+		
+		for (int channels = requested.channels; channels >= 1; channels--) {
+			CaptureFormat format = new CaptureFormat(requested.sampleRate, channels);
+			if (format.getMinBufferSize() > 0) {
+				return format;
+			}
+			
+			for (int rate : rates) {
+				format = new CaptureFormat(rate, channels);
+				if (format.getMinBufferSize() > 0) {
+					return format;
+				}
+			}
+		}
+		
+		return DEFAULT;
+	}
+
+	/**
+	 * Compression ratio scaled to sample rate, so analysis runs at about the
+	 * same rate for all capture rates. Ratio from settings is set for
+	 * BASE_SAMPLE_RATE.
+	 * 
+	 * @param compressionRatio
+	 *            use each compressionRatio-th sample at BASE_SAMPLE_RATE
+	 * @param sampleRate
+	 *            real sample rate in Hz
+	 * @return
+	 */
+	public static int scaleCompressionRatio(int compressionRatio, int sampleRate) {
+		return Math.max(1, Math.round((float) compressionRatio * sampleRate
+				/ BASE_SAMPLE_RATE));
+	}
+
+	/**
+	 * Sample rate in Hz
+	 * 
+	 * @return
+	 */
+	public int getSampleRate() {
+		return this.sampleRate;
+	}
+
+	/**
+	 * Number of channels, 1 = mono, 2 = stereo
+	 * 
+	 * @return
+	 */
+	public int getChannels() {
+		return this.channels;
+	}
+
+	/**
+	 * Channel configuration for AudioRecord
+	 * 
+	 * @return
+	 * @see android.media.AudioFormat
+	 */
+	public int getChannelConfig() {
+		return this.channels == 2 ? AudioFormat.CHANNEL_IN_STEREO
+				: AudioFormat.CHANNEL_IN_MONO;
+	}
+
+	/**
+	 * Format in which the audio data is represented
+	 * 
+	 * @return
+	 * @see android.media.AudioFormat
+	 */
+	public int getEncoding() {
+		return AudioFormat.ENCODING_PCM_16BIT;
+	}
+
+	/**
+	 * Bytes of one sample of all channels
+	 * 
+	 * @return
+	 */
+	public int getFrameSize() {
+		return this.channels * BITS_PER_SAMPLE / 8;
+	}
+
+	/**
+	 * Bytes of one second of audio
+	 * 
+	 * @return
+	 */
+	public int getByteRate() {
+		return this.sampleRate * this.getFrameSize();
+	}
+
+	/**
+	 * Minimum AudioRecord buffer size in bytes
+	 * 
+	 * @return buffer size, value <= 0 if format is not supported by device
+	 */
+	public int getMinBufferSize() {
+		return AudioRecord.getMinBufferSize(this.sampleRate,
+				this.getChannelConfig(), this.getEncoding());
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof CaptureFormat)) {
+			return false;
+		}
+		
+		CaptureFormat format = (CaptureFormat) o;
+		return format.sampleRate == this.sampleRate
+				&& format.channels == this.channels;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.sampleRate * 2 + this.channels;
+	}
+
+	@Override
+	public String toString() {
+		return this.sampleRate + " Hz, " + (this.channels == 2 ? "stereo" : "mono");
+	}
+}
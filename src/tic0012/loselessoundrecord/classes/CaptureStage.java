@@ -0,0 +1,44 @@
+package tic0012.loselessoundrecord.classes;
+
+import java.io.IOException;
+
+/**
+ * Stage of recording pipeline, gets audio samples as they are captured
+ * 
+ * @author tic0012, Michal Tich
+ */
+public interface CaptureStage {
+
+	/**
+	 * Recording started
+	 * 
+	 * @param sampleRate
+	 *            sample rate in Hz
+	 * @param channels
+	 *            number of channels, samples are interleaved
+	 * @param preRollFrames
+	 *            number of frames at start of stream, which were captured
+	 *            before recording start
+	 * @throws IOException
+	 */
+	public void onStart(int sampleRate, int channels, int preRollFrames)
+			throws IOException;
+
+	/**
+	 * Next block of samples was captured
+	 * 
+	 * @param samples
+	 *            captured 16bit samples, valid only during call
+	 * @param length
+	 *            number of valid samples
+	 * @throws IOException
+	 */
+	public void onSamples(short[] samples, int length) throws IOException;
+
+	/**
+	 * Recording stopped, no more samples will come
+	 * 
+	 * @throws IOException
+	 */
+	public void onStop() throws IOException;
+}
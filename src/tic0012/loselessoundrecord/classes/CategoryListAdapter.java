@@ -1,7 +1,11 @@
 package tic0012.loselessoundrecord.classes;
 
-import java.util.ArrayList;
+import java.util.Date;
+import tic0012.loselessoundrecord.model.CategoryModel;
+import tic0012.loselessoundrecord.model.DatabaseHandler;
+import tic0012.loselessoundrecord.model.RecordModel;
 import android.content.Context;
+import android.database.Cursor;
 import android.graphics.Color;
 import android.graphics.Typeface;
 import android.text.format.DateFormat;
@@ -10,111 +14,96 @@ import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AbsListView;
-import android.widget.BaseExpandableListAdapter;
+import android.widget.CursorTreeAdapter;
 import android.widget.TextView;
 
 /**
- * Expandable Adapter, contains all categories with records
+ * Expandable Adapter over categories cursor. Records of category are
+ * queried only when category is expanded, cursors keep only window of rows
+ * in memory and row views are recycled.
  * 
  * @author tic0012, Michal Tich
  */
-public class CategoryListAdapter extends BaseExpandableListAdapter {
-	
-	/**
-	 * All categories for list
-	 */
-	private ArrayList<Category> items;
+public class CategoryListAdapter extends CursorTreeAdapter {
 	
 	private Context context;
-
-	public CategoryListAdapter(ArrayList<Category> items, Context context) {
-		this.items = items;
-		this.context = context;
-	}
-
-	/**
-	 * Get Record from category
-	 */
-	public Record getChild(int groupPosition, int childPosition) {
-		return this.items.get(groupPosition).records.get(childPosition);
-	}
+	
+	private CategoryModel categoryModel;
+	
+	private RecordModel recordModel;
 
 	/**
-	 * Get Record ID from category
+	 * @param categories
+	 *            cursor from CategoryModel.getSummaryCursor, may be null
+	 * @param context
 	 */
-	public long getChildId(int groupPosition, int childPosition) {
-		return this.items.get(groupPosition).records.get(childPosition).getId();		
-	}
-
-	public View getChildView(
-			int groupPosition, 
-			int childPosition,
-			boolean isLastChild, 
-			View convertView, 
-			ViewGroup parent
-			) {		
-		
-		Record record = this.items.get(groupPosition).records.get(childPosition);
-		
-		TextView textView = this.getGenericView();
-		textView.setTextColor(Color.DKGRAY);
-		textView.setText(DateFormat.format("d. M. yyyy k:mm", record.dateRecorderd));		
-		textView.setTextSize(TypedValue.COMPLEX_UNIT_DIP, 18);
+	public CategoryListAdapter(Cursor categories, Context context) {
+		super(categories, context, false);
 		
-		return textView;
-	}
-
-	/**
-	 * Get Records count in Category
-	 */
-	public int getChildrenCount(int groupPosition) {
-		return this.items.get(groupPosition).records.size();			
-	}
-
-	/**
-	 * Get Category
-	 */
-	public Category getGroup(int groupPosition) {
-		return this.items.get(groupPosition);
+		this.context = context;
+		this.categoryModel = CategoryModel.getInstance(context);
+		this.recordModel = RecordModel.getInstance(context);
 	}
 
 	/**
-	 * Get Category count
+	 * Query records of expanded category
 	 */
-	public int getGroupCount() {
-		return this.items.size();		
+	@Override
+	protected Cursor getChildrenCursor(Cursor groupCursor) {
+		long categoryId = groupCursor.getLong(groupCursor
+				.getColumnIndex(DatabaseHandler.COLUMN_CATEGORY_ID));
+		
+		return this.recordModel.getCategoryRecords(categoryId);
 	}
-
+	
 	/**
-	 * Get category ID
+	 * Get Category without records
+	 * 
+	 * @param groupPosition
+	 * @return
 	 */
-	public long getGroupId(int groupPosition) {
-		return this.items.get(groupPosition).getId();
+	public CategorySummary getCategory(int groupPosition) {
+		return this.categoryModel.summaryFactory(this.getGroup(groupPosition));
 	}
 
-	public View getGroupView(
-			int groupPosition, 
-			boolean isExpanded,
-			View convertView, 
-			ViewGroup parent
-			) {
-		TextView textView = this.getGenericView();				
-		textView.setText(this.items.get(groupPosition).name + " (" + this.items.get(groupPosition).records.size() + ")");
+	@Override
+	protected View newGroupView(Context context, Cursor cursor,
+			boolean isExpanded, ViewGroup parent) {
+		TextView textView = this.getGenericView();
 		
 		textView.setTextColor(Color.BLACK);
 		textView.setTypeface(null, Typeface.BOLD);	
 		textView.setTextSize(TypedValue.COMPLEX_UNIT_DIP, 20);
 		
 		return textView;
+	}
 
+	@Override
+	protected void bindGroupView(View view, Context context, Cursor cursor,
+			boolean isExpanded) {
+		CategorySummary category = this.categoryModel.summaryFactory(cursor);
+		
+		((TextView) view).setText(category.name + " (" + category.recordCount + ")");
 	}
 
-	public boolean hasStableIds() {
-		return true;
+	@Override
+	protected View newChildView(Context context, Cursor cursor,
+			boolean isLastChild, ViewGroup parent) {
+		TextView textView = this.getGenericView();
+		
+		textView.setTextColor(Color.DKGRAY);
+		textView.setTextSize(TypedValue.COMPLEX_UNIT_DIP, 18);
+		
+		return textView;
 	}
 
-	public boolean isChildSelectable(int groupPosition, int childPosition) {
-		return true;
+	@Override
+	protected void bindChildView(View view, Context context, Cursor cursor,
+			boolean isLastChild) {
+		Date dateRecorded = new Date(cursor.getLong(cursor
+				.getColumnIndex(DatabaseHandler.COLUMN_RECORD_DATE)));
+		
+		((TextView) view).setText(DateFormat.format("d. M. yyyy k:mm", dateRecorded));
 	}
 
 	public TextView getGenericView() {
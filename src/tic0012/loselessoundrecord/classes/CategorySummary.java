@@ -0,0 +1,27 @@
+package tic0012.loselessoundrecord.classes;
+
+
+/**
+ * Category without records, only for lists and pickers
+ * 
+ * @author tic0012, Michal Tich
+ */
+public class CategorySummary extends BaseObject {
+
+	/**
+	 * Group Name
+	 */
+	public String name;
+	
+	/**
+	 * Number of records in Category
+	 */
+	public int recordCount;
+	
+	public CategorySummary(long id, String name, int recordCount){
+		this.id = id;
+		this.name = name;
+		this.recordCount = recordCount;
+	}
+	
+}
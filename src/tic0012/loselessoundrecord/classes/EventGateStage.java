@@ -0,0 +1,267 @@
+package tic0012.loselessoundrecord.classes;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Recording pipeline stage writing only audio around found gunShots. Last
+ * samples are kept in memory, when gunShot is found, segment from preMillis
+ * before it to postMillis after it is written into WAV file. Close gunShots
+ * share one segment, silence between them is dropped. Position of each
+ * segment in session is stored in segment index chunk behind data.
+ * 
+ * GunShots are reported by GunshotDetectionStage, which must run before
+ * this stage in pipeline.
+ * 
+ * @author tic0012, Michal Tich
+ * @see WavFile#SEGMENT_CHUNK_ID
+ */
+public class EventGateStage implements CaptureStage,
+		GunshotDetector.OnShotListener {
+
+	/**
+	 * Audio kept above pre window in ms, covers detector window and delay of
+	 * gunShot report
+	 */
+	private final int DETECTION_MARGIN = 1000;
+
+	/**
+	 * Size of block written into file in samples
+	 */
+	private final int WRITE_BLOCK_SIZE = 8192;
+
+	/**
+	 * Absolute path to WAV file
+	 */
+	private String filePath;
+
+	/**
+	 * Audio kept before gunShot in ms
+	 */
+	private int preMillis;
+
+	/**
+	 * Audio kept after gunShot in ms
+	 */
+	private int postMillis;
+
+	private int sampleRate;
+
+	private int channels;
+
+	/**
+	 * Frames captured before recording start
+	 */
+	private int preRollFrames;
+
+	/**
+	 * Audio kept before gunShot in frames
+	 */
+	private long preFrames;
+
+	/**
+	 * Audio kept after gunShot in frames
+	 */
+	private long postFrames;
+
+	/**
+	 * Last captured samples
+	 */
+	private PreRollBuffer preRoll;
+
+	/**
+	 * Output file, null when not recording
+	 */
+	private FileOutputStream out = null;
+
+	/**
+	 * Session frame where open segment starts, -1 if no segment is open
+	 */
+	private long segmentStart = -1;
+
+	/**
+	 * Session frame up to which audio is written
+	 */
+	private long writtenTo = 0;
+
+	/**
+	 * Session frame where open segment ends
+	 */
+	private long gateEnd = 0;
+
+	/**
+	 * Number of frames written into file
+	 */
+	private long fileFrames = 0;
+
+	/**
+	 * Closed segments, [0] => first frame in session, [1] => number of
+	 * frames
+	 */
+	private ArrayList<long[]> segments = new ArrayList<long[]>();
+
+	private short[] block = new short[WRITE_BLOCK_SIZE];
+
+	private ByteBuffer byteBuffer;
+
+	/**
+	 * @param filePath
+	 *            absolute path to WAV file
+	 * @param preMillis
+	 *            audio kept before gunShot in ms
+	 * @param postMillis
+	 *            audio kept after gunShot in ms
+	 */
+	public EventGateStage(String filePath, int preMillis, int postMillis) {
+		this.filePath = filePath;
+		this.preMillis = preMillis;
+		this.postMillis = postMillis;
+
+		this.byteBuffer = ByteBuffer.allocate(WRITE_BLOCK_SIZE * 2);
+		this.byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public void onStart(int sampleRate, int channels, int preRollFrames)
+			throws IOException {
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		this.preRollFrames = preRollFrames;
+		this.preFrames = (long) sampleRate * this.preMillis / 1000;
+		this.postFrames = (long) sampleRate * this.postMillis / 1000;
+		this.preRoll = new PreRollBuffer((int) ((long) sampleRate
+				* (this.preMillis + this.DETECTION_MARGIN) / 1000) * channels);
+
+		this.segmentStart = -1;
+		this.writtenTo = 0;
+		this.gateEnd = 0;
+		this.fileFrames = 0;
+		this.segments.clear();
+
+		// reserve space for header, data continue behind it
+		this.out = new FileOutputStream(this.filePath);
+		FileChannel channel = this.out.getChannel();
+		WavFile.writeHeader(channel, sampleRate, channels, 0, 0);
+		channel.position(WavFile.HEADER_SIZE);
+	}
+
+	/**
+	 * Open segment around gunShot or extend open one. Called by detection
+	 * stage before samples of the same block get here.
+	 * 
+	 * @param frame
+	 *            gunShot frame in session
+	 */
+	public void onShot(int frame) {
+		if (this.out == null) {
+			return;
+		}
+
+		long end = frame + this.postFrames;
+
+		if (this.segmentStart >= 0) {
+			this.gateEnd = Math.max(this.gateEnd, end);
+			return;
+		}
+
+		// segment cannot reach into previous one or before kept samples
+		long firstKept = this.preRoll.getFirstIndex() / this.channels;
+		this.segmentStart = Math.max(Math.max(frame - this.preFrames,
+				firstKept), this.writtenTo);
+		this.writtenTo = this.segmentStart;
+		this.gateEnd = end;
+	}
+
+	public void onSamples(short[] samples, int length) throws IOException {
+		if (this.out == null) {
+			return;
+		}
+
+		this.preRoll.write(samples, length);
+
+		if (this.segmentStart >= 0) {
+			this.writeSegment();
+		}
+	}
+
+	/**
+	 * Write kept samples of open segment, close segment when its end is
+	 * written
+	 * 
+	 * @throws IOException
+	 */
+	private void writeSegment() throws IOException {
+		long available = this.preRoll.getCount() / this.channels;
+		long to = Math.min(available, this.gateEnd);
+		int blockFrames = this.block.length / this.channels;
+
+		while (this.writtenTo < to) {
+			int frames = (int) Math.min(to - this.writtenTo, blockFrames);
+			int length = frames * this.channels;
+
+			this.preRoll.read(this.writtenTo * this.channels, this.block, 0,
+					length);
+			this.byteBuffer.clear();
+			this.byteBuffer.asShortBuffer().put(this.block, 0, length);
+			this.out.write(this.byteBuffer.array(), 0, length * 2);
+
+			this.writtenTo += frames;
+			this.fileFrames += frames;
+		}
+
+		if (this.writtenTo >= this.gateEnd) {
+			this.closeSegment();
+		}
+	}
+
+	private void closeSegment() {
+		if (this.writtenTo > this.segmentStart) {
+			this.segments.add(new long[] { this.segmentStart,
+					this.writtenTo - this.segmentStart });
+		}
+
+		this.segmentStart = -1;
+	}
+
+	/**
+	 * Write rest of open segment, segment index, pre-roll and complete header
+	 */
+	public void onStop() throws IOException {
+		if (this.out == null) {
+			return;
+		}
+
+		if (this.segmentStart >= 0) {
+			this.writeSegment();
+			this.closeSegment();
+		}
+
+		int indexSize = 4 + this.segments.size() * WavFile.SEGMENT_ENTRY_SIZE;
+		ByteBuffer index = ByteBuffer.allocate(8 + indexSize);
+		index.order(ByteOrder.LITTLE_ENDIAN);
+		index.put(WavFile.SEGMENT_CHUNK_ID.getBytes("US-ASCII"));
+		index.putInt(indexSize);
+		index.putInt(this.segments.size());
+		for (long[] segment : this.segments) {
+			index.putLong(segment[0]);
+			index.putInt((int) segment[1]);
+		}
+		index.flip();
+
+		try {
+			FileChannel channel = this.out.getChannel();
+			channel.write(index);
+			WavFile.writePreRollChunk(channel, this.preRollFrames);
+			WavFile.writeHeader(channel, this.sampleRate, this.channels,
+					this.fileFrames * this.channels * 2, 8 + indexSize
+							+ WavFile.PRE_ROLL_CHUNK_SIZE);
+		} finally {
+			this.out.close();
+			this.out = null;
+			this.preRoll = null;
+		}
+	}
+}
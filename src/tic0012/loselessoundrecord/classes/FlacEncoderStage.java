@@ -0,0 +1,1022 @@
+package tic0012.loselessoundrecord.classes;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Streaming lossless FLAC encoder of 16bit samples. Frames are encoded and
+ * written as samples arrive, each subframe uses best of constant, verbatim,
+ * fixed and LPC prediction with partitioned Rice coded residual. STREAMINFO
+ * with frame sizes, sample count and MD5 is completed when recording stops.
+ *
+ * @author tic0012, Michal Tich
+ * @see https://xiph.org/flac/format.html
+ */
+public class FlacEncoderStage implements CaptureStage {
+
+	/**
+	 * Number of samples per channel in one frame
+	 */
+	public static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * Bits per sample
+	 */
+	private static final int BITS_PER_SAMPLE = 16;
+
+	/**
+	 * Highest LPC order tried
+	 */
+	private static final int MAX_LPC_ORDER = 8;
+
+	/**
+	 * Precision of quantized LPC coefficients in bits
+	 */
+	private static final int LPC_PRECISION = 12;
+
+	/**
+	 * Highest Rice partition order tried
+	 */
+	private static final int MAX_PARTITION_ORDER = 6;
+
+	/**
+	 * Highest Rice parameter of 4bit parameter coding, 15 is escape code
+	 */
+	private static final int MAX_RICE_PARAMETER = 14;
+
+	/**
+	 * Position of STREAMINFO data in file
+	 */
+	private static final int STREAMINFO_POSITION = 8;
+
+	private static final int SUBFRAME_CONSTANT = 0;
+
+	private static final int SUBFRAME_VERBATIM = 1;
+
+	private static final int SUBFRAME_FIXED = 8;
+
+	private static final int SUBFRAME_LPC = 32;
+
+	/**
+	 * Path of FLAC file
+	 */
+	private String filePath;
+
+	private FileOutputStream fileStream;
+
+	private BufferedOutputStream out;
+
+	private int sampleRate;
+
+	private int channels;
+
+	/**
+	 * Samples of current frame, one array per channel
+	 */
+	private int[][] block;
+
+	/**
+	 * Number of samples per channel in current frame
+	 */
+	private int blockFill;
+
+	private long frameNumber;
+
+	private long totalSamples;
+
+	/**
+	 * Frames captured before recording start
+	 */
+	private int preRollFrames;
+
+	private int minFrameSize;
+
+	private int maxFrameSize;
+
+	/**
+	 * MD5 of samples as little endian interleaved 16bit data
+	 */
+	private MessageDigest md5;
+
+	private byte[] md5Buffer = new byte[0];
+
+	/**
+	 * Encoded frame
+	 */
+	private BitWriter frame = new BitWriter();
+
+	/**
+	 * Residual of candidate predictor
+	 */
+	private int[] residual = new int[BLOCK_SIZE];
+
+	/**
+	 * Residual of best predictor found so far
+	 */
+	private int[] bestResidual = new int[BLOCK_SIZE];
+
+	/**
+	 * Subframe type of best predictor
+	 */
+	private int bestType;
+
+	/**
+	 * Order of best predictor
+	 */
+	private int bestOrder;
+
+	/**
+	 * Estimated size of best subframe in bits
+	 */
+	private long bestBits;
+
+	/**
+	 * Quantized coefficients of candidate LPC
+	 */
+	private int[] qlpCoefficients = new int[MAX_LPC_ORDER];
+
+	/**
+	 * Quantized coefficients and shift of best LPC
+	 */
+	private int[] bestCoefficients = new int[MAX_LPC_ORDER];
+
+	private int bestShift;
+
+	private int qlpShift;
+
+	private double[] autocorrelation = new double[MAX_LPC_ORDER + 1];
+
+	private double[] lpc = new double[MAX_LPC_ORDER];
+
+	private double[] window = new double[BLOCK_SIZE];
+
+	private double[] windowed = new double[BLOCK_SIZE];
+
+	private long[] partitionSums = new long[1 << MAX_PARTITION_ORDER];
+
+	/**
+	 * Rice partition order chosen by planResidual
+	 */
+	private int partitionOrder;
+
+	/**
+	 * @param filePath
+	 *            path of created FLAC file
+	 */
+	public FlacEncoderStage(String filePath) {
+		this.filePath = filePath;
+	}
+
+	public void onStart(int sampleRate, int channels, int preRollFrames)
+			throws IOException {
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		this.preRollFrames = preRollFrames;
+		this.block = new int[channels][BLOCK_SIZE];
+		this.blockFill = 0;
+		this.frameNumber = 0;
+		this.totalSamples = 0;
+		this.minFrameSize = Integer.MAX_VALUE;
+		this.maxFrameSize = 0;
+
+		try {
+			this.md5 = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			this.md5 = null;
+		}
+
+		// Welch window for LPC analysis
+		double half = (BLOCK_SIZE - 1) / 2.0;
+		for (int i = 0; i < BLOCK_SIZE; i++) {
+			double x = (i - half) / half;
+			this.window[i] = 1.0 - x * x;
+		}
+
+		this.fileStream = new FileOutputStream(this.filePath);
+		this.out = new BufferedOutputStream(this.fileStream, 64 * 1024);
+
+		this.out.write(new byte[] { 'f', 'L', 'a', 'C' });
+		this.out.write(this.streamInfo());
+		this.out.write(this.preRollInfo());
+	}
+
+	public void onSamples(short[] samples, int length) throws IOException {
+		if (this.out == null) { // file was not created
+			return;
+		}
+
+		this.updateMd5(samples, length);
+
+		int frames = length / this.channels;
+		int position = 0;
+
+		for (int i = 0; i < frames; i++) {
+			for (int c = 0; c < this.channels; c++) {
+				this.block[c][this.blockFill] = samples[position++];
+			}
+
+			if (++this.blockFill == BLOCK_SIZE) {
+				this.writeFrame();
+			}
+		}
+	}
+
+	public void onStop() throws IOException {
+		if (this.out == null) {
+			return;
+		}
+
+		if (this.blockFill > 0) {
+			this.writeFrame();
+		}
+
+		this.out.flush();
+
+		// complete STREAMINFO with final values
+		FileChannel channel = this.fileStream.getChannel();
+		channel.write(ByteBuffer.wrap(this.streamInfo(), 4, 34),
+				STREAMINFO_POSITION);
+
+		this.out.close();
+		this.out = null;
+	}
+
+	/**
+	 * STREAMINFO metadata block with its header
+	 *
+	 * @return
+	 */
+	private byte[] streamInfo() {
+		BitWriter info = new BitWriter();
+
+		// not last metadata block, type STREAMINFO, length
+		info.writeBits(0, 1);
+		info.writeBits(0, 7);
+		info.writeBits(34, 24);
+
+		info.writeBits(BLOCK_SIZE, 16);
+		info.writeBits(BLOCK_SIZE, 16);
+		info.writeBits(this.maxFrameSize == 0 ? 0 : this.minFrameSize, 24);
+		info.writeBits(this.maxFrameSize, 24);
+		info.writeBits(this.sampleRate, 20);
+		info.writeBits(this.channels - 1, 3);
+		info.writeBits(BITS_PER_SAMPLE - 1, 5);
+		info.writeBits((int) (this.totalSamples >>> 32) & 0xF, 4);
+		info.writeBits((int) this.totalSamples, 32);
+
+		// digest is final only when recording stops
+		byte[] digest = this.md5 != null && this.totalSamples > 0 ? this.md5
+				.digest() : new byte[16];
+		for (int i = 0; i < 16; i++) {
+			info.writeBits(digest[i] & 0xFF, 8);
+		}
+
+		info.flush();
+		byte[] bytes = new byte[info.length()];
+		System.arraycopy(info.buffer(), 0, bytes, 0, bytes.length);
+
+		return bytes;
+	}
+
+	/**
+	 * APPLICATION metadata block with number of pre-roll frames
+	 *
+	 * @return
+	 * @see FlacFile#PRE_ROLL_APPLICATION_ID
+	 */
+	private byte[] preRollInfo() {
+		BitWriter info = new BitWriter();
+
+		// last metadata block, type APPLICATION, length
+		info.writeBits(1, 1);
+		info.writeBits(2, 7);
+		info.writeBits(8, 24);
+
+		for (int i = 0; i < 4; i++) {
+			info.writeBits(FlacFile.PRE_ROLL_APPLICATION_ID.charAt(i), 8);
+		}
+		info.writeBits(this.preRollFrames, 32);
+
+		info.flush();
+		byte[] bytes = new byte[info.length()];
+		System.arraycopy(info.buffer(), 0, bytes, 0, bytes.length);
+
+		return bytes;
+	}
+
+	/**
+	 * Add samples to MD5 of stream
+	 *
+	 * @param samples
+	 * @param length
+	 */
+	private void updateMd5(short[] samples, int length) {
+		if (this.md5 == null) {
+			return;
+		}
+
+		if (this.md5Buffer.length < length * 2) {
+			this.md5Buffer = new byte[length * 2];
+		}
+
+		for (int i = 0; i < length; i++) {
+			this.md5Buffer[2 * i] = (byte) samples[i];
+			this.md5Buffer[2 * i + 1] = (byte) (samples[i] >> 8);
+		}
+		this.md5.update(this.md5Buffer, 0, length * 2);
+	}
+
+	/**
+	 * Encode and write frame of current block
+	 *
+	 * @throws IOException
+	 */
+	private void writeFrame() throws IOException {
+		int blockSize = this.blockFill;
+		BitWriter frame = this.frame;
+		frame.reset();
+
+		// frame header, fixed block size stream
+		frame.writeBits(0x3FFE, 14);
+		frame.writeBits(0, 1);
+		frame.writeBits(0, 1);
+		frame.writeBits(blockSize == BLOCK_SIZE ? 12 : 7, 4);
+		frame.writeBits(sampleRateCode(this.sampleRate), 4);
+		frame.writeBits(this.channels - 1, 4);
+		frame.writeBits(4, 3); // 16 bits per sample
+		frame.writeBits(0, 1);
+		frame.writeUtf8(this.frameNumber);
+		if (blockSize != BLOCK_SIZE) {
+			frame.writeBits(blockSize - 1, 16);
+		}
+		frame.flush();
+		frame.writeBits(crc8(frame.buffer(), frame.length()), 8);
+
+		for (int c = 0; c < this.channels; c++) {
+			this.encodeSubframe(frame, this.block[c], blockSize);
+		}
+
+		frame.alignToByte();
+		frame.flush();
+		frame.writeBits(crc16(frame.buffer(), frame.length()), 16);
+		frame.flush();
+
+		this.out.write(frame.buffer(), 0, frame.length());
+
+		this.minFrameSize = Math.min(this.minFrameSize, frame.length());
+		this.maxFrameSize = Math.max(this.maxFrameSize, frame.length());
+		this.totalSamples += blockSize;
+		this.frameNumber++;
+		this.blockFill = 0;
+	}
+
+	/**
+	 * Encode one channel into smallest subframe. Predictors are compared by
+	 * estimated size, only the best one is written.
+	 *
+	 * @param out
+	 * @param samples
+	 * @param blockSize
+	 */
+	private void encodeSubframe(BitWriter out, int[] samples, int blockSize) {
+		// constant subframe
+		boolean constant = true;
+		for (int i = 1; i < blockSize; i++) {
+			if (samples[i] != samples[0]) {
+				constant = false;
+				break;
+			}
+		}
+		if (constant) {
+			out.writeBits(SUBFRAME_CONSTANT << 1, 8);
+			out.writeSigned(samples[0], BITS_PER_SAMPLE);
+			return;
+		}
+
+		// verbatim subframe is upper bound
+		this.bestType = SUBFRAME_VERBATIM;
+		this.bestBits = 8 + (long) blockSize * BITS_PER_SAMPLE;
+
+		// fixed predictor with smallest residual
+		int fixedOrder = bestFixedOrder(samples, blockSize);
+		this.fixedResidual(samples, blockSize, fixedOrder);
+		this.keepCandidate(SUBFRAME_FIXED, fixedOrder, 8 + fixedOrder
+				* BITS_PER_SAMPLE
+				+ this.planResidual(this.residual, blockSize, fixedOrder));
+
+		// LPC
+		int maxOrder = Math.min(MAX_LPC_ORDER, blockSize / 2);
+		if (maxOrder > 0 && this.computeAutocorrelation(samples, blockSize, maxOrder)) {
+			for (int order = 2; order <= maxOrder; order += 2) {
+				if (this.lpcResidual(samples, blockSize, order)) {
+					this.keepCandidate(SUBFRAME_LPC, order, 8 + order
+							* (BITS_PER_SAMPLE + LPC_PRECISION) + 9
+							+ this.planResidual(this.residual, blockSize, order));
+				}
+			}
+		}
+
+		// write best subframe
+		int order = this.bestOrder;
+		switch (this.bestType) {
+		case SUBFRAME_VERBATIM:
+			out.writeBits(SUBFRAME_VERBATIM << 1, 8);
+			for (int i = 0; i < blockSize; i++) {
+				out.writeSigned(samples[i], BITS_PER_SAMPLE);
+			}
+			return;
+
+		case SUBFRAME_FIXED:
+			out.writeBits((SUBFRAME_FIXED | order) << 1, 8);
+			for (int i = 0; i < order; i++) {
+				out.writeSigned(samples[i], BITS_PER_SAMPLE);
+			}
+			break;
+
+		default:
+			out.writeBits((SUBFRAME_LPC | (order - 1)) << 1, 8);
+			for (int i = 0; i < order; i++) {
+				out.writeSigned(samples[i], BITS_PER_SAMPLE);
+			}
+			out.writeBits(LPC_PRECISION - 1, 4);
+			out.writeSigned(this.bestShift, 5);
+			for (int i = 0; i < order; i++) {
+				out.writeSigned(this.bestCoefficients[i], LPC_PRECISION);
+			}
+		}
+
+		this.writeResidual(out, this.bestResidual, blockSize, order);
+	}
+
+	/**
+	 * Keep candidate predictor, if it is smaller than best one
+	 *
+	 * @param type
+	 * @param order
+	 * @param bits
+	 *            estimated subframe size
+	 */
+	private void keepCandidate(int type, int order, long bits) {
+		if (bits >= this.bestBits) {
+			return;
+		}
+
+		this.bestType = type;
+		this.bestOrder = order;
+		this.bestBits = bits;
+
+		int[] swap = this.bestResidual;
+		this.bestResidual = this.residual;
+		this.residual = swap;
+
+		if (type == SUBFRAME_LPC) {
+			System.arraycopy(this.qlpCoefficients, 0, this.bestCoefficients,
+					0, order);
+			this.bestShift = this.qlpShift;
+		}
+	}
+
+	/**
+	 * Fixed predictor order with smallest sum of absolute residuals
+	 *
+	 * @param s
+	 * @param blockSize
+	 * @return
+	 */
+	private static int bestFixedOrder(int[] s, int blockSize) {
+		if (blockSize < 5) {
+			return 0;
+		}
+
+		long e0 = 0, e1 = 0, e2 = 0, e3 = 0, e4 = 0;
+		for (int i = 4; i < blockSize; i++) {
+			long r0 = s[i];
+			long r1 = r0 - s[i - 1];
+			long r2 = r1 - (s[i - 1] - s[i - 2]);
+			long r3 = r2 - (s[i - 1] - 2 * s[i - 2] + s[i - 3]);
+			long r4 = r3 - (s[i - 1] - 3 * s[i - 2] + 3 * s[i - 3] - s[i - 4]);
+
+			e0 += Math.abs(r0);
+			e1 += Math.abs(r1);
+			e2 += Math.abs(r2);
+			e3 += Math.abs(r3);
+			e4 += Math.abs(r4);
+		}
+
+		int order = 0;
+		long min = e0;
+		if (e1 < min) {
+			min = e1;
+			order = 1;
+		}
+		if (e2 < min) {
+			min = e2;
+			order = 2;
+		}
+		if (e3 < min) {
+			min = e3;
+			order = 3;
+		}
+		if (e4 < min) {
+			order = 4;
+		}
+
+		return order;
+	}
+
+	/**
+	 * Compute residual of fixed predictor
+	 *
+	 * @param s
+	 * @param blockSize
+	 * @param order
+	 */
+	private void fixedResidual(int[] s, int blockSize, int order) {
+		int[] res = this.residual;
+
+		for (int i = order; i < blockSize; i++) {
+			switch (order) {
+			case 0:
+				res[i] = s[i];
+				break;
+			case 1:
+				res[i] = s[i] - s[i - 1];
+				break;
+			case 2:
+				res[i] = s[i] - 2 * s[i - 1] + s[i - 2];
+				break;
+			case 3:
+				res[i] = s[i] - 3 * s[i - 1] + 3 * s[i - 2] - s[i - 3];
+				break;
+			default:
+				res[i] = s[i] - 4 * s[i - 1] + 6 * s[i - 2] - 4 * s[i - 3]
+						+ s[i - 4];
+			}
+		}
+	}
+
+	/**
+	 * Compute autocorrelation of windowed block for LPC analysis
+	 *
+	 * @param s
+	 * @param blockSize
+	 * @param maxOrder
+	 * @return false if block is silent
+	 */
+	private boolean computeAutocorrelation(int[] s, int blockSize, int maxOrder) {
+		double[] w = this.windowed;
+		double scale = (BLOCK_SIZE - 1) / (double) Math.max(1, blockSize - 1);
+
+		for (int i = 0; i < blockSize; i++) {
+			w[i] = s[i] * this.window[(int) (i * scale)];
+		}
+
+		for (int lag = 0; lag <= maxOrder; lag++) {
+			double sum = 0;
+			for (int i = lag; i < blockSize; i++) {
+				sum += w[i] * w[i - lag];
+			}
+			this.autocorrelation[lag] = sum;
+		}
+
+		return this.autocorrelation[0] > 0;
+	}
+
+	/**
+	 * Compute quantized LPC coefficients of given order by Levinson-Durbin
+	 * recursion and residual of them
+	 *
+	 * @param s
+	 * @param blockSize
+	 * @param order
+	 * @return false if LPC cannot be used
+	 */
+	private boolean lpcResidual(int[] s, int blockSize, int order) {
+		double[] r = this.autocorrelation;
+		double[] a = this.lpc;
+		double error = r[0] * (1.0 + 1e-10);
+
+		// Levinson-Durbin
+		for (int i = 0; i < order; i++) {
+			double k = -r[i + 1];
+			for (int j = 0; j < i; j++) {
+				k -= a[j] * r[i - j];
+			}
+			k /= error;
+
+			for (int j = 0; j < i / 2; j++) {
+				double tmp = a[j];
+				a[j] += k * a[i - 1 - j];
+				a[i - 1 - j] += k * tmp;
+			}
+			if ((i & 1) == 1) {
+				a[i / 2] += a[i / 2] * k;
+			}
+			a[i] = k;
+
+			error *= 1.0 - k * k;
+			if (error <= 0) {
+				return false;
+			}
+		}
+
+		// quantize coefficients, predictor is sum of qlp * past sample
+		double cmax = 0;
+		for (int i = 0; i < order; i++) {
+			cmax = Math.max(cmax, Math.abs(a[i]));
+		}
+		if (cmax == 0) {
+			return false;
+		}
+
+		int maxCoefficient = (1 << (LPC_PRECISION - 1)) - 1;
+		int log2 = (int) Math.floor(Math.log(cmax) / Math.log(2)) + 1;
+		int shift = Math.min(15, LPC_PRECISION - 1 - log2);
+		if (shift < 0) {
+			return false;
+		}
+
+		int[] q = this.qlpCoefficients;
+		double carry = 0;
+		for (int i = 0; i < order; i++) {
+			carry += -a[i] * (1 << shift);
+			long value = Math.round(carry);
+			value = Math.max(-maxCoefficient - 1, Math.min(maxCoefficient, value));
+			carry -= value;
+			q[i] = (int) value;
+		}
+
+		// residual
+		int[] res = this.residual;
+		for (int i = order; i < blockSize; i++) {
+			long sum = 0;
+			for (int j = 0; j < order; j++) {
+				sum += (long) q[j] * s[i - j - 1];
+			}
+			long value = s[i] - (sum >> shift);
+
+			if (value > (1 << 24) || value < -(1 << 24)) {
+				return false;
+			}
+			res[i] = (int) value;
+		}
+		this.qlpShift = shift;
+
+		return true;
+	}
+
+	/**
+	 * Choose Rice partition order and parameters giving smallest estimated
+	 * size of residual
+	 *
+	 * @param res
+	 * @param blockSize
+	 * @param predictorOrder
+	 * @return estimated size of residual in bits
+	 */
+	private long planResidual(int[] res, int blockSize, int predictorOrder) {
+		// highest partition order dividing block
+		int maxPartitionOrder = 0;
+		while (maxPartitionOrder < MAX_PARTITION_ORDER
+				&& (blockSize & ((1 << (maxPartitionOrder + 1)) - 1)) == 0
+				&& (blockSize >> (maxPartitionOrder + 1)) > predictorOrder) {
+			maxPartitionOrder++;
+		}
+
+		// sums of folded residuals in smallest partitions
+		int partitionSize = blockSize >> maxPartitionOrder;
+		for (int p = 0, i = predictorOrder; p < (1 << maxPartitionOrder); p++) {
+			long sum = 0;
+			int end = (p + 1) * partitionSize;
+			for (; i < end; i++) {
+				sum += fold(res[i]);
+			}
+			this.partitionSums[p] = sum;
+		}
+
+		// merge partitions upwards, keep cheapest order
+		long bestBits = Long.MAX_VALUE;
+		for (int order = maxPartitionOrder; order >= 0; order--) {
+			if (order < maxPartitionOrder) {
+				for (int p = 0; p < (1 << order); p++) {
+					this.partitionSums[p] = this.partitionSums[2 * p]
+							+ this.partitionSums[2 * p + 1];
+				}
+			}
+
+			long bits = 6;
+			for (int p = 0; p < (1 << order); p++) {
+				int count = (blockSize >> order) - (p == 0 ? predictorOrder : 0);
+				int k = riceParameter(this.partitionSums[p], count);
+				bits += 4 + riceBits(this.partitionSums[p], count, k);
+			}
+
+			if (bits < bestBits) {
+				bestBits = bits;
+				this.partitionOrder = order;
+			}
+		}
+
+		return bestBits;
+	}
+
+	/**
+	 * Write residual as partitioned Rice code
+	 *
+	 * @param out
+	 * @param res
+	 * @param blockSize
+	 * @param predictorOrder
+	 */
+	private void writeResidual(BitWriter out, int[] res, int blockSize,
+			int predictorOrder) {
+		this.planResidual(res, blockSize, predictorOrder);
+
+		int order = this.partitionOrder;
+		int count = blockSize >> order;
+
+		out.writeBits(0, 2); // Rice coding with 4bit parameters
+		out.writeBits(order, 4);
+
+		for (int p = 0, i = predictorOrder; p < (1 << order); p++) {
+			int end = (p + 1) * count;
+			long sum = 0;
+			for (int j = i; j < end; j++) {
+				sum += fold(res[j]);
+			}
+			int k = riceParameter(sum, end - i);
+
+			out.writeBits(k, 4);
+			for (; i < end; i++) {
+				out.writeRice(fold(res[i]), k);
+			}
+		}
+	}
+
+	/**
+	 * Map signed residual to unsigned
+	 *
+	 * @param value
+	 * @return
+	 */
+	private static int fold(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	/**
+	 * Rice parameter for partition with given sum of folded residuals
+	 *
+	 * @param sum
+	 * @param count
+	 * @return
+	 */
+	private static int riceParameter(long sum, int count) {
+		if (count <= 0) {
+			return 0;
+		}
+
+		int k = 0;
+		long mean = sum / count;
+		while (k < MAX_RICE_PARAMETER && (1L << (k + 1)) <= mean) {
+			k++;
+		}
+
+		return k;
+	}
+
+	/**
+	 * Estimated Rice coded size of partition in bits
+	 *
+	 * @param sum
+	 * @param count
+	 * @param k
+	 * @return
+	 */
+	private static long riceBits(long sum, int count, int k) {
+		return (long) count * (k + 1) + (sum >> k);
+	}
+
+	/**
+	 * FLAC sample rate code of frame header, 0 means rate from STREAMINFO
+	 *
+	 * @param sampleRate
+	 * @return
+	 */
+	private static int sampleRateCode(int sampleRate) {
+		switch (sampleRate) {
+		case 8000:
+			return 4;
+		case 16000:
+			return 5;
+		case 22050:
+			return 6;
+		case 24000:
+			return 7;
+		case 32000:
+			return 8;
+		case 44100:
+			return 9;
+		case 48000:
+			return 10;
+		case 96000:
+			return 11;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * CRC-8 of frame header, polynomial x^8 + x^2 + x + 1
+	 *
+	 * @param data
+	 * @param length
+	 * @return
+	 */
+	static int crc8(byte[] data, int length) {
+		int crc = 0;
+
+		for (int i = 0; i < length; i++) {
+			crc ^= data[i] & 0xFF;
+			for (int b = 0; b < 8; b++) {
+				crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+			}
+			crc &= 0xFF;
+		}
+
+		return crc;
+	}
+
+	/**
+	 * CRC-16 of whole frame, polynomial x^16 + x^15 + x^2 + 1
+	 *
+	 * @param data
+	 * @param length
+	 * @return
+	 */
+	static int crc16(byte[] data, int length) {
+		int crc = 0;
+
+		for (int i = 0; i < length; i++) {
+			crc ^= (data[i] & 0xFF) << 8;
+			for (int b = 0; b < 8; b++) {
+				crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x8005 : crc << 1;
+			}
+			crc &= 0xFFFF;
+		}
+
+		return crc;
+	}
+
+	/**
+	 * Growable big endian bit output
+	 */
+	private static class BitWriter {
+
+		private byte[] buffer = new byte[16 * 1024];
+
+		/**
+		 * Number of whole bytes in buffer
+		 */
+		private int bytes = 0;
+
+		/**
+		 * Bits not yet moved into buffer, aligned to right
+		 */
+		private long accumulator = 0;
+
+		private int accumulatorBits = 0;
+
+		public void reset() {
+			this.bytes = 0;
+			this.accumulator = 0;
+			this.accumulatorBits = 0;
+		}
+
+		/**
+		 * Buffer with written bytes, valid after flush
+		 *
+		 * @return
+		 */
+		public byte[] buffer() {
+			return this.buffer;
+		}
+
+		/**
+		 * Number of written bytes, valid after flush
+		 *
+		 * @return
+		 */
+		public int length() {
+			return this.bytes;
+		}
+
+		/**
+		 * Move whole bytes from accumulator into buffer
+		 */
+		public void flush() {
+			this.ensure();
+
+			while (this.accumulatorBits >= 8) {
+				this.accumulatorBits -= 8;
+				this.buffer[this.bytes++] = (byte) (this.accumulator >>> this.accumulatorBits);
+			}
+		}
+
+		/**
+		 * Write lowest count bits of value, count up to 32
+		 *
+		 * @param value
+		 * @param count
+		 */
+		public void writeBits(int value, int count) {
+			if (count == 0) {
+				return;
+			}
+			if (this.accumulatorBits > 32) {
+				this.flush();
+			}
+
+			this.accumulator = (this.accumulator << count)
+					| (value & ((1L << count) - 1));
+			this.accumulatorBits += count;
+		}
+
+		/**
+		 * Write two's complement value in count bits
+		 *
+		 * @param value
+		 * @param count
+		 */
+		public void writeSigned(int value, int count) {
+			this.writeBits(value, count);
+		}
+
+		/**
+		 * Write Rice coded unsigned value
+		 *
+		 * @param value
+		 * @param k
+		 */
+		public void writeRice(int value, int k) {
+			int quotient = value >>> k;
+
+			while (quotient >= 31) {
+				this.writeBits(0, 31);
+				quotient -= 31;
+			}
+			this.writeBits(1, quotient + 1);
+			this.writeBits(value, k);
+		}
+
+		/**
+		 * Write number in UTF-8 like coding of frame header
+		 *
+		 * @param value
+		 */
+		public void writeUtf8(long value) {
+			if (value < 0x80) {
+				this.writeBits((int) value, 8);
+				return;
+			}
+
+			int count = 2;
+			while (count < 7 && value >= (1L << (5 * count + 1))) {
+				count++;
+			}
+
+			int shift = 6 * (count - 1);
+			int prefix = (0xFF00 >> count) & 0xFF;
+			this.writeBits(prefix | (int) (value >>> shift), 8);
+			for (shift -= 6; shift >= 0; shift -= 6) {
+				this.writeBits(0x80 | (int) ((value >>> shift) & 0x3F), 8);
+			}
+		}
+
+		/**
+		 * Pad with zero bits to whole byte
+		 */
+		public void alignToByte() {
+			int rest = this.accumulatorBits & 7;
+
+			if (rest != 0) {
+				this.writeBits(0, 8 - rest);
+			}
+		}
+
+		/**
+		 * Make room for accumulator content
+		 */
+		private void ensure() {
+			if (this.bytes + 8 > this.buffer.length) {
+				byte[] bigger = new byte[this.buffer.length * 2];
+				System.arraycopy(this.buffer, 0, bigger, 0, this.bytes);
+				this.buffer = bigger;
+			}
+		}
+	}
+}
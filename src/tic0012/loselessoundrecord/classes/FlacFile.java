@@ -0,0 +1,817 @@
+package tic0012.loselessoundrecord.classes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * FLAC file opened for reading of 16bit samples. File is memory mapped and
+ * frames are decoded when their samples are read, so sequential reading
+ * decodes each frame once. Frame positions are remembered while decoding,
+ * reading back jumps straight to the frame. CRC of each frame is checked,
+ * reading stops at last valid frame.
+ *
+ * @author tic0012, Michal Tich
+ * @see https://xiph.org/flac/format.html
+ */
+public class FlacFile implements SampleSource {
+
+	private static final int BITS_PER_SAMPLE = 16;
+
+	private static final int METADATA_STREAMINFO = 0;
+
+	private static final int METADATA_APPLICATION = 2;
+
+	/**
+	 * Id of APPLICATION metadata block holding number of frames at start of
+	 * stream captured before recording start (32bit, big endian)
+	 */
+	public static final String PRE_ROLL_APPLICATION_ID = "prol";
+
+	private static final int CHANNELS_LEFT_SIDE = 8;
+
+	private static final int CHANNELS_RIGHT_SIDE = 9;
+
+	private static final int CHANNELS_MID_SIDE = 10;
+
+	/**
+	 * Fixed predictor coefficients of orders 0 - 4
+	 */
+	private static final int[][] FIXED_COEFFICIENTS = { {}, { 1 }, { 2, -1 },
+			{ 3, -3, 1 }, { 4, -6, 4, -1 } };
+
+	/**
+	 * CRC-8 of each byte value, polynomial x^8 + x^2 + x + 1
+	 */
+	private static final int[] CRC8_TABLE = new int[256];
+
+	/**
+	 * CRC-16 of each byte value, polynomial x^16 + x^15 + x^2 + 1
+	 */
+	private static final int[] CRC16_TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc8 = i;
+			int crc16 = i << 8;
+
+			for (int b = 0; b < 8; b++) {
+				crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+				crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005
+						: crc16 << 1;
+			}
+
+			CRC8_TABLE[i] = crc8 & 0xFF;
+			CRC16_TABLE[i] = crc16 & 0xFFFF;
+		}
+	}
+
+	/**
+	 * Whole mapped file
+	 */
+	private ByteBuffer data;
+
+	private int sampleRate;
+
+	private int channels;
+
+	private int maxBlockSize;
+
+	/**
+	 * Frames captured before recording start
+	 */
+	private int preRollFrames = 0;
+
+	/**
+	 * Total number of samples of all channels
+	 */
+	private long sampleCount;
+
+	/**
+	 * File positions of indexed frames
+	 */
+	private long[] frameOffsets = new long[256];
+
+	/**
+	 * Index of first sample of indexed frames
+	 */
+	private long[] frameStarts = new long[256];
+
+	private int frameCount = 0;
+
+	/**
+	 * File position of first not indexed frame
+	 */
+	private long indexedEnd;
+
+	/**
+	 * Number of samples in indexed frames
+	 */
+	private long indexedSamples = 0;
+
+	/**
+	 * Samples of last decoded frame, interleaved
+	 */
+	private short[] decoded = new short[0];
+
+	private long decodedStart = -1;
+
+	private int decodedLength = 0;
+
+	/**
+	 * Decoded samples of one channel, one array per channel
+	 */
+	private int[][] channelSamples;
+
+	private BitReader reader = new BitReader();
+
+	public FlacFile(String filePath) throws IOException {
+		FileInputStream inputStream = new FileInputStream(new File(filePath));
+
+		try {
+			FileChannel channel = inputStream.getChannel();
+			this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} finally {
+			// mapping stays valid after close
+			inputStream.close();
+		}
+
+		this.readMetadata();
+	}
+
+	/**
+	 * Parse metadata blocks up to first frame
+	 *
+	 * @throws IOException
+	 */
+	private void readMetadata() throws IOException {
+		if (this.data.limit() < 8 || this.data.get(0) != 'f'
+				|| this.data.get(1) != 'L' || this.data.get(2) != 'a'
+				|| this.data.get(3) != 'C') {
+			throw new IOException("Not a FLAC file");
+		}
+
+		boolean streamInfoFound = false;
+		boolean last = false;
+		int position = 4;
+
+		while (!last) {
+			if (position + 4 > this.data.limit()) {
+				throw new IOException("Unexpected end of FLAC metadata");
+			}
+
+			int header = this.data.getInt(position);
+			last = (header >>> 31) == 1;
+			int type = (header >>> 24) & 0x7F;
+			int length = header & 0xFFFFFF;
+
+			if (type == METADATA_STREAMINFO) {
+				BitReader info = this.reader;
+				info.reset(this.data, position + 4);
+
+				info.readBits(16); // min block size
+				this.maxBlockSize = info.readBits(16);
+				info.readBits(24); // min frame size
+				info.readBits(24); // max frame size
+				this.sampleRate = info.readBits(20);
+				this.channels = info.readBits(3) + 1;
+				int bitsPerSample = info.readBits(5) + 1;
+				long frames = ((long) info.readBits(4) << 32)
+						| (info.readBits(32) & 0xFFFFFFFFL);
+
+				if (bitsPerSample != BITS_PER_SAMPLE) {
+					throw new IOException("Only 16bit FLAC is supported");
+				}
+
+				this.sampleCount = frames * this.channels;
+				streamInfoFound = true;
+			} else if (type == METADATA_APPLICATION && length >= 8
+					&& position + 12 <= this.data.limit()
+					&& this.hasApplicationId(position + 4,
+							PRE_ROLL_APPLICATION_ID)) {
+				this.preRollFrames = Math.max(0, this.data.getInt(position + 8));
+			}
+
+			position += 4 + length;
+		}
+
+		if (!streamInfoFound) {
+			throw new IOException("Missing STREAMINFO");
+		}
+
+		this.indexedEnd = position;
+		this.channelSamples = new int[this.channels][Math.max(
+				this.maxBlockSize, 16)];
+
+		// count is not set when recording was interrupted, index all frames
+		if (this.sampleCount == 0) {
+			this.sampleCount = Long.MAX_VALUE;
+			while (this.indexedEnd < this.data.limit()
+					&& this.decodeNextIndexed()) {
+			}
+			this.sampleCount = this.indexedSamples;
+		}
+	}
+
+	private boolean hasApplicationId(int position, String id) {
+		for (int i = 0; i < 4; i++) {
+			if (this.data.get(position + i) != id.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public int getSampleRate() {
+		return this.sampleRate;
+	}
+
+	public int getChannels() {
+		return this.channels;
+	}
+
+	public long getSampleCount() {
+		return this.sampleCount;
+	}
+
+	public int getPreRollFrames() {
+		return this.preRollFrames;
+	}
+
+	public SessionTimeline getTimeline() {
+		return new SessionTimeline(this.sampleRate, this.preRollFrames, null,
+				null);
+	}
+
+	public synchronized short getSample(long index) throws IOException {
+		if (!this.decodeFrameWith(index)) {
+			throw new IOException("Sample " + index + " cannot be decoded");
+		}
+
+		return this.decoded[(int) (index - this.decodedStart)];
+	}
+
+	/**
+	 * Copy samples decoding frames as needed, safe for more threads
+	 */
+	public synchronized int read(long from, short[] dst, int offset,
+			int length) throws IOException {
+		if (from >= this.sampleCount) {
+			return -1;
+		}
+
+		length = (int) Math.min(length, this.sampleCount - from);
+		int copied = 0;
+
+		while (copied < length) {
+			long index = from + copied;
+
+			if (!this.decodeFrameWith(index)) {
+				break;
+			}
+
+			int position = (int) (index - this.decodedStart);
+			int count = Math.min(length - copied, this.decodedLength - position);
+			System.arraycopy(this.decoded, position, dst, offset + copied,
+					count);
+			copied += count;
+		}
+
+		// frame of first sample is damaged
+		if (copied == 0 && length > 0) {
+			return -1;
+		}
+
+		return copied;
+	}
+
+	/**
+	 * Mapping is released by garbage collector, drop reference to it
+	 */
+	public void close() {
+		this.data = ByteBuffer.allocate(0);
+		this.decoded = new short[0];
+		this.decodedStart = -1;
+		this.decodedLength = 0;
+	}
+
+	/**
+	 * Make frame containing sample the decoded one
+	 *
+	 * @param index
+	 * @return false if sample cannot be decoded
+	 * @throws IOException
+	 */
+	private boolean decodeFrameWith(long index) throws IOException {
+		if (index >= this.decodedStart
+				&& index < this.decodedStart + this.decodedLength) {
+			return true;
+		}
+
+		// frame already indexed
+		if (index < this.indexedSamples) {
+			int low = 0;
+			int high = this.frameCount - 1;
+
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+
+				if (this.frameStarts[middle] <= index) {
+					low = middle;
+				} else {
+					high = middle - 1;
+				}
+			}
+
+			this.decodeFrame(this.frameOffsets[low], this.frameStarts[low]);
+			return true;
+		}
+
+		// decode following frames until sample is reached
+		while (index >= this.indexedSamples) {
+			if (this.indexedEnd >= this.data.limit() || !this.decodeNextIndexed()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Decode first not indexed frame and add it into index
+	 *
+	 * @return false if frame is damaged or truncated
+	 */
+	private boolean decodeNextIndexed() {
+		long next;
+
+		try {
+			next = this.decodeFrame(this.indexedEnd, this.indexedSamples);
+		} catch (IOException e) {
+			return false;
+		} catch (IndexOutOfBoundsException e) { // truncated frame
+			return false;
+		}
+
+		if (this.frameCount == this.frameOffsets.length) {
+			long[] offsets = new long[this.frameCount * 2];
+			long[] starts = new long[this.frameCount * 2];
+			System.arraycopy(this.frameOffsets, 0, offsets, 0, this.frameCount);
+			System.arraycopy(this.frameStarts, 0, starts, 0, this.frameCount);
+			this.frameOffsets = offsets;
+			this.frameStarts = starts;
+		}
+
+		this.frameOffsets[this.frameCount] = this.indexedEnd;
+		this.frameStarts[this.frameCount] = this.indexedSamples;
+		this.frameCount++;
+
+		this.indexedEnd = next;
+		this.indexedSamples += this.decodedLength;
+
+		return true;
+	}
+
+	/**
+	 * Decode frame into decoded samples
+	 *
+	 * @param offset
+	 *            file position of frame
+	 * @param firstSample
+	 *            index of first sample of frame
+	 * @return file position behind frame
+	 * @throws IOException
+	 */
+	private long decodeFrame(long offset, long firstSample) throws IOException {
+		BitReader in = this.reader;
+		in.reset(this.data, (int) offset);
+
+		if (in.readBits(14) != 0x3FFE) {
+			throw new IOException("Lost FLAC frame sync");
+		}
+		in.readBits(2); // reserved, blocking strategy
+
+		int blockSizeCode = in.readBits(4);
+		int sampleRateCode = in.readBits(4);
+		int channelAssignment = in.readBits(4);
+		in.readBits(3); // sample size, STREAMINFO is used
+		in.readBits(1);
+		in.readUtf8(); // frame or sample number
+
+		int blockSize;
+		if (blockSizeCode == 1) {
+			blockSize = 192;
+		} else if (blockSizeCode >= 2 && blockSizeCode <= 5) {
+			blockSize = 576 << (blockSizeCode - 2);
+		} else if (blockSizeCode == 6) {
+			blockSize = in.readBits(8) + 1;
+		} else if (blockSizeCode == 7) {
+			blockSize = in.readBits(16) + 1;
+		} else if (blockSizeCode >= 8) {
+			blockSize = 256 << (blockSizeCode - 8);
+		} else {
+			throw new IOException("Reserved FLAC block size");
+		}
+
+		if (sampleRateCode == 12) {
+			in.readBits(8);
+		} else if (sampleRateCode == 13 || sampleRateCode == 14) {
+			in.readBits(16);
+		}
+
+		int headerEnd = (int) in.position();
+		if (in.readBits(8) != this.crc8((int) offset, headerEnd)) {
+			throw new IOException("FLAC frame header CRC mismatch");
+		}
+
+		int frameChannels = channelAssignment < CHANNELS_LEFT_SIDE ? channelAssignment + 1
+				: 2;
+		if (frameChannels != this.channels) {
+			throw new IOException("Unexpected number of channels in frame");
+		}
+
+		if (this.channelSamples[0].length < blockSize) {
+			this.channelSamples = new int[this.channels][blockSize];
+		}
+
+		// side channel has one more bit
+		for (int c = 0; c < frameChannels; c++) {
+			int bits = BITS_PER_SAMPLE;
+			if ((channelAssignment == CHANNELS_LEFT_SIDE && c == 1)
+					|| (channelAssignment == CHANNELS_RIGHT_SIDE && c == 0)
+					|| (channelAssignment == CHANNELS_MID_SIDE && c == 1)) {
+				bits++;
+			}
+
+			this.decodeSubframe(in, this.channelSamples[c], blockSize, bits);
+		}
+
+		in.alignToByte();
+
+		int frameEnd = (int) in.position();
+		if (in.readBits(16) != this.crc16((int) offset, frameEnd)) {
+			throw new IOException("FLAC frame CRC mismatch");
+		}
+
+		this.decorrelate(channelAssignment, blockSize);
+		this.interleave(blockSize, firstSample);
+
+		return in.position();
+	}
+
+	/**
+	 * CRC-8 of frame header bytes
+	 *
+	 * @param from
+	 *            file position of first byte
+	 * @param to
+	 *            file position behind last byte
+	 * @return
+	 */
+	private int crc8(int from, int to) {
+		int crc = 0;
+
+		for (int i = from; i < to; i++) {
+			crc = CRC8_TABLE[crc ^ (this.data.get(i) & 0xFF)];
+		}
+
+		return crc;
+	}
+
+	/**
+	 * CRC-16 of frame bytes
+	 *
+	 * @param from
+	 *            file position of first byte
+	 * @param to
+	 *            file position behind last byte
+	 * @return
+	 */
+	private int crc16(int from, int to) {
+		int crc = 0;
+
+		for (int i = from; i < to; i++) {
+			crc = ((crc << 8) & 0xFFFF)
+					^ CRC16_TABLE[(crc >>> 8) ^ (this.data.get(i) & 0xFF)];
+		}
+
+		return crc;
+	}
+
+	/**
+	 * Restore left and right channel from stereo decorrelation
+	 *
+	 * @param channelAssignment
+	 * @param blockSize
+	 */
+	private void decorrelate(int channelAssignment, int blockSize) {
+		if (channelAssignment < CHANNELS_LEFT_SIDE) {
+			return;
+		}
+
+		int[] a = this.channelSamples[0];
+		int[] b = this.channelSamples[1];
+
+		for (int i = 0; i < blockSize; i++) {
+			switch (channelAssignment) {
+			case CHANNELS_LEFT_SIDE:
+				b[i] = a[i] - b[i];
+				break;
+			case CHANNELS_RIGHT_SIDE:
+				a[i] = a[i] + b[i];
+				break;
+			default:
+				int mid = (a[i] << 1) | (b[i] & 1);
+				int side = b[i];
+				a[i] = (mid + side) >> 1;
+				b[i] = (mid - side) >> 1;
+			}
+		}
+	}
+
+	/**
+	 * Interleave channels into decoded samples
+	 *
+	 * @param blockSize
+	 * @param firstSample
+	 */
+	private void interleave(int blockSize, long firstSample) {
+		int length = blockSize * this.channels;
+
+		if (this.decoded.length < length) {
+			this.decoded = new short[length];
+		}
+
+		for (int c = 0; c < this.channels; c++) {
+			int[] samples = this.channelSamples[c];
+
+			for (int i = 0, j = c; i < blockSize; i++, j += this.channels) {
+				this.decoded[j] = (short) samples[i];
+			}
+		}
+
+		this.decodedStart = firstSample;
+		this.decodedLength = (int) Math.min(length, this.sampleCount
+				- firstSample);
+	}
+
+	/**
+	 * Decode one channel of frame
+	 *
+	 * @param in
+	 * @param samples
+	 * @param blockSize
+	 * @param bits
+	 *            bits per sample of subframe
+	 * @throws IOException
+	 */
+	private void decodeSubframe(BitReader in, int[] samples, int blockSize,
+			int bits) throws IOException {
+		in.readBits(1); // zero padding
+		int type = in.readBits(6);
+
+		// wasted bits per sample
+		int wasted = 0;
+		if (in.readBits(1) == 1) {
+			wasted = in.readUnary() + 1;
+			bits -= wasted;
+		}
+
+		if (type == 0) { // constant
+			int value = in.readSigned(bits);
+			for (int i = 0; i < blockSize; i++) {
+				samples[i] = value;
+			}
+		} else if (type == 1) { // verbatim
+			for (int i = 0; i < blockSize; i++) {
+				samples[i] = in.readSigned(bits);
+			}
+		} else if (type >= 8 && type <= 12) { // fixed
+			int order = type - 8;
+
+			for (int i = 0; i < order; i++) {
+				samples[i] = in.readSigned(bits);
+			}
+			this.readResidual(in, samples, blockSize, order);
+			this.restore(samples, blockSize, FIXED_COEFFICIENTS[order], order,
+					0);
+		} else if (type >= 32) { // LPC
+			int order = type - 31;
+
+			for (int i = 0; i < order; i++) {
+				samples[i] = in.readSigned(bits);
+			}
+			int precision = in.readBits(4) + 1;
+			int shift = in.readSigned(5);
+			int[] coefficients = new int[order];
+			for (int i = 0; i < order; i++) {
+				coefficients[i] = in.readSigned(precision);
+			}
+			this.readResidual(in, samples, blockSize, order);
+			this.restore(samples, blockSize, coefficients, order, shift);
+		} else {
+			throw new IOException("Reserved FLAC subframe type");
+		}
+
+		if (wasted > 0) {
+			for (int i = 0; i < blockSize; i++) {
+				samples[i] <<= wasted;
+			}
+		}
+	}
+
+	/**
+	 * Add prediction to residuals stored behind warm up samples
+	 *
+	 * @param samples
+	 * @param blockSize
+	 * @param coefficients
+	 * @param order
+	 * @param shift
+	 */
+	private void restore(int[] samples, int blockSize, int[] coefficients,
+			int order, int shift) {
+		for (int i = order; i < blockSize; i++) {
+			long sum = 0;
+
+			for (int j = 0; j < order; j++) {
+				sum += (long) coefficients[j] * samples[i - j - 1];
+			}
+			samples[i] += (int) (sum >> shift);
+		}
+	}
+
+	/**
+	 * Read partitioned Rice coded residual behind warm up samples
+	 *
+	 * @param in
+	 * @param samples
+	 * @param blockSize
+	 * @param order
+	 * @throws IOException
+	 */
+	private void readResidual(BitReader in, int[] samples, int blockSize,
+			int order) throws IOException {
+		int method = in.readBits(2);
+		if (method > 1) {
+			throw new IOException("Reserved FLAC residual coding");
+		}
+
+		int parameterBits = method == 0 ? 4 : 5;
+		int escape = (1 << parameterBits) - 1;
+		int partitionOrder = in.readBits(4);
+		int partitionSize = blockSize >> partitionOrder;
+		int i = order;
+
+		for (int p = 0; p < (1 << partitionOrder); p++) {
+			int k = in.readBits(parameterBits);
+			int end = (p + 1) * partitionSize;
+
+			if (k == escape) { // unencoded partition
+				int bits = in.readBits(5);
+				for (; i < end; i++) {
+					samples[i] = bits == 0 ? 0 : in.readSigned(bits);
+				}
+				continue;
+			}
+
+			for (; i < end; i++) {
+				int value = (in.readUnary() << k) | in.readBits(k);
+				samples[i] = (value >>> 1) ^ -(value & 1);
+			}
+		}
+	}
+
+	/**
+	 * Big endian bit input from mapped file
+	 */
+	private static class BitReader {
+
+		private ByteBuffer data;
+
+		/**
+		 * Position of next byte to load
+		 */
+		private int position;
+
+		/**
+		 * Loaded bits, valid are lowest cacheBits
+		 */
+		private long cache;
+
+		private int cacheBits;
+
+		public void reset(ByteBuffer data, int position) {
+			this.data = data;
+			this.position = position;
+			this.cache = 0;
+			this.cacheBits = 0;
+		}
+
+		/**
+		 * Position of first byte not fully read
+		 *
+		 * @return
+		 */
+		public long position() {
+			return this.position - (this.cacheBits >> 3);
+		}
+
+		/**
+		 * Read count bits as unsigned number, count up to 32
+		 *
+		 * @param count
+		 * @return
+		 */
+		public int readBits(int count) {
+			if (count == 0) {
+				return 0;
+			}
+
+			while (this.cacheBits < count) {
+				this.cache = (this.cache << 8) | (this.data.get(this.position++) & 0xFF);
+				this.cacheBits += 8;
+			}
+
+			this.cacheBits -= count;
+			return (int) ((this.cache >>> this.cacheBits) & ((1L << count) - 1));
+		}
+
+		/**
+		 * Read count bits as two's complement number
+		 *
+		 * @param count
+		 * @return
+		 */
+		public int readSigned(int count) {
+			int value = this.readBits(count);
+
+			return (value << (32 - count)) >> (32 - count);
+		}
+
+		/**
+		 * Count zero bits up to first one bit, which is consumed too
+		 *
+		 * @return
+		 */
+		public int readUnary() {
+			int zeros = 0;
+
+			while (true) {
+				if (this.cacheBits == 0) {
+					this.cache = this.data.get(this.position++) & 0xFF;
+					this.cacheBits = 8;
+				}
+
+				long bits = this.cache & ((1L << this.cacheBits) - 1);
+				if (bits == 0) {
+					zeros += this.cacheBits;
+					this.cacheBits = 0;
+					continue;
+				}
+
+				int leading = this.cacheBits - (64 - Long.numberOfLeadingZeros(bits));
+				zeros += leading;
+				this.cacheBits -= leading + 1;
+
+				return zeros;
+			}
+		}
+
+		/**
+		 * Read number in UTF-8 like coding of frame header
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		public long readUtf8() throws IOException {
+			int first = this.readBits(8);
+			int count = 0;
+
+			while (((first << count) & 0x80) != 0) {
+				count++;
+			}
+			if (count == 1 || count > 7) {
+				throw new IOException("Invalid FLAC frame number");
+			}
+
+			long value = first & (0x7F >> count);
+			for (int i = 1; i < count; i++) {
+				value = (value << 6) | (this.readBits(8) & 0x3F);
+			}
+
+			return value;
+		}
+
+		/**
+		 * Skip bits to byte boundary
+		 */
+		public void alignToByte() {
+			this.cacheBits -= this.cacheBits & 7;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package tic0012.loselessoundrecord.classes;
+
+import java.util.ArrayList;
+
+/**
+ * Recording pipeline stage searching for gunShots while recording. Samples
+ * are compressed the same way as in WAV file reading, so found gunShots
+ * match those found later in the recorded file. Only first channel of stereo
+ * is searched.
+ * 
+ * @author tic0012, Michal Tich
+ */
+public class GunshotDetectionStage implements CaptureStage {
+
+	/**
+	 * Number which sample is used at CaptureFormat.BASE_SAMPLE_RATE, for
+	 * example = 4, use each fourth sample
+	 */
+	private int compressionRatio;
+
+	/**
+	 * Compression ratio scaled to sample rate
+	 */
+	private int ratio;
+
+	/**
+	 * Distance between used samples in interleaved samples of all channels
+	 */
+	private int step;
+
+	/**
+	 * Gets index of frame in captured stream for each found gunShot
+	 */
+	private GunshotDetector.OnShotListener frameListener = null;
+
+	/**
+	 * Sensitivity index of detector
+	 */
+	private int sensitivity;
+
+	/**
+	 * Sample rate of samples after compression in Hz
+	 */
+	private int analysisRate;
+
+	/**
+	 * Length of pre-roll at start of stream in seconds, gunShot times are
+	 * measured from recording start
+	 */
+	private float preRollTime;
+
+	/**
+	 * Streaming gunShot detector
+	 */
+	private GunshotDetector detector;
+
+	/**
+	 * Samples after compression
+	 */
+	private short[] compressed = new short[0];
+
+	/**
+	 * Samples to skip before next used one
+	 */
+	private int skipBeforeNext;
+
+	/**
+	 * Lists of times when was fired
+	 */
+	private ArrayList<Float> gunshots = new ArrayList<Float>();
+
+	/**
+	 * List of gunShots indexes(sample number after compression)
+	 */
+	private ArrayList<Integer> sampleShots = new ArrayList<Integer>();
+
+	/**
+	 * @param compressionRatio
+	 *            use each compressionRatio-th sample, 1 = use all samples
+	 * @param sensitivity
+	 *            index into GunshotDetector.SHOT_VALUES
+	 */
+	public GunshotDetectionStage(int compressionRatio, int sensitivity) {
+		this.compressionRatio = Math.max(1, compressionRatio);
+		this.sensitivity = sensitivity;
+	}
+
+	public synchronized void onStart(int sampleRate, int channels,
+			int preRollFrames) {
+		int ratio = CaptureFormat.scaleCompressionRatio(this.compressionRatio,
+				sampleRate);
+		
+		this.ratio = ratio;
+		this.analysisRate = sampleRate / ratio;
+		this.preRollTime = (float) preRollFrames / (float) sampleRate;
+		this.detector = new GunshotDetector(this.analysisRate,
+				this.sensitivity, this.compressionRatio > 1,
+				this.shotListener);
+		this.step = ratio * channels;
+		this.skipBeforeNext = this.step - channels;
+		this.gunshots.clear();
+		this.sampleShots.clear();
+	}
+
+	public synchronized void onSamples(short[] samples, int length) {
+		if (this.compressed.length < length) {
+			this.compressed = new short[length];
+		}
+
+		// skip samples for compression
+		int compressedSize = 0;
+		int i;
+		for (i = this.skipBeforeNext; i < length; i += this.step) {
+			this.compressed[compressedSize++] = samples[i];
+		}
+		this.skipBeforeNext = i - length;
+
+		this.detector.process(this.compressed, 0, compressedSize);
+	}
+
+	public void onStop() {
+	}
+
+	/**
+	 * Set listener getting index of frame in captured stream for each found
+	 * gunShot, it is called in recording thread
+	 * 
+	 * @param listener
+	 */
+	public synchronized void setFrameListener(GunshotDetector.OnShotListener listener) {
+		this.frameListener = listener;
+	}
+
+	/**
+	 * Times of found gunShots in seconds from recording start, gunShots in
+	 * pre-roll have negative time
+	 * 
+	 * @return
+	 */
+	public synchronized ArrayList<Float> getGunshots() {
+		return new ArrayList<Float>(this.gunshots);
+	}
+
+	/**
+	 * Indexes of found gunShots in samples after compression
+	 * 
+	 * @return
+	 */
+	public synchronized ArrayList<Integer> getSampleShots() {
+		return new ArrayList<Integer>(this.sampleShots);
+	}
+
+	/**
+	 * Collect gunShots found by detector
+	 */
+	private GunshotDetector.OnShotListener shotListener = new GunshotDetector.OnShotListener() {
+		public void onShot(int sampleIndex) {
+			gunshots.add((float) sampleIndex / (float) analysisRate
+					- preRollTime);
+			sampleShots.add(sampleIndex);
+			
+			if (frameListener != null) {
+				// frame of compressed sample, see skipBeforeNext
+				frameListener.onShot(sampleIndex * ratio + ratio - 1);
+			}
+		}
+	};
+}
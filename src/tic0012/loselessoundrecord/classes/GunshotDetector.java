@@ -0,0 +1,244 @@
+package tic0012.loselessoundrecord.classes;
+
+/**
+ * Streaming gunShot detector. Samples are fed block by block, sum of
+ * positive amplitudes is kept for sliding window, so each sample is checked
+ * in constant time and no gunShot is split between two searched parts.
+ *
+ * Does not depend on Android, can be used on plain JVM.
+ *
+ * @author tic0012, Michal Tich
+ */
+public class GunshotDetector {
+
+	/**
+	 * Time space between gunShots in seconds
+	 */
+	public static final float GUNSHOT_SPACE = 0.15f;
+
+	/**
+	 * Length of sliding window in seconds. Only positive amplitudes are
+	 * summed, they fill about half of the window, so the sum corresponds to
+	 * former 0.04 s searching part of positive samples.
+	 */
+	public static final float WINDOW_TIME = 0.08f;
+
+	/**
+	 * Sample rate of compressed samples, which SHOT_VALUES are set for. It
+	 * is 44 100 Hz with each fourth sample used.
+	 */
+	public static final int REFERENCE_RATE = 11025;
+
+	/**
+	 * Sample rate of uncompressed samples, which SHOT_VALUES are set for.
+	 * Uncompressed search keeps its own calibration, its window holds four
+	 * times more samples than window of REFERENCE_RATE.
+	 */
+	public static final int UNCOMPRESSED_REFERENCE_RATE = 44100;
+
+	/**
+	 * Sum of positive amplitudes in window of REFERENCE_RATE or
+	 * UNCOMPRESSED_REFERENCE_RATE representing gunshot for each sensitivity
+	 */
+	public static final int[] SHOT_VALUES = {
+			10000000,
+			9400000,
+			8800000,
+			8200000,
+			7600000,
+			7100000, // default value
+			6200000,
+			5300000,
+			4400000,
+			3500000,
+			2600000
+			};
+
+	/**
+	 * Listener of found gunShots
+	 */
+	public interface OnShotListener {
+
+		/**
+		 * GunShot was found
+		 *
+		 * @param sampleIndex
+		 *            index of first sample in window containing gunShot
+		 */
+		public void onShot(int sampleIndex);
+	}
+
+	/**
+	 * Positive amplitudes in sliding window, used as ring buffer
+	 */
+	private final int[] window;
+
+	/**
+	 * Position of oldest amplitude in window
+	 */
+	private int windowPosition;
+
+	/**
+	 * Running sum of amplitudes in window
+	 */
+	private long windowSum;
+
+	/**
+	 * Sum of amplitudes, which is gunShot
+	 */
+	private final long threshold;
+
+	/**
+	 * Minimum space between gunshots in samples
+	 */
+	private final int spaceSamples;
+
+	/**
+	 * Number of processed samples
+	 */
+	private int sampleCount;
+
+	/**
+	 * Index of last found gunShot, -1 if none
+	 */
+	private int lastShotIndex;
+
+	/**
+	 * Found gunShots listener
+	 */
+	private OnShotListener listener;
+
+	/**
+	 * Threshold is scaled by window length, so the same gunShot is found at
+	 * any sample rate of compressed or uncompressed search
+	 *
+	 * @param sampleRate
+	 *            sample rate of processed samples in Hz
+	 * @param sensitivity
+	 *            index into SHOT_VALUES
+	 * @param compressed
+	 *            only part of samples is processed, threshold is scaled from
+	 *            REFERENCE_RATE, else from UNCOMPRESSED_REFERENCE_RATE
+	 * @param listener
+	 */
+	public GunshotDetector(int sampleRate, int sensitivity,
+			boolean compressed, OnShotListener listener) {
+		this((int) (sampleRate * WINDOW_TIME),
+				(int) (sampleRate * GUNSHOT_SPACE), scaleThreshold(
+						SHOT_VALUES[sensitivity], sampleRate,
+						compressed ? REFERENCE_RATE
+								: UNCOMPRESSED_REFERENCE_RATE), listener);
+	}
+
+	/**
+	 * @param windowSamples
+	 *            length of sliding window in samples
+	 * @param spaceSamples
+	 *            minimum space between gunShots in samples
+	 * @param threshold
+	 *            sum of positive amplitudes in window, which is gunShot
+	 * @param listener
+	 */
+	public GunshotDetector(int windowSamples, int spaceSamples,
+			long threshold, OnShotListener listener) {
+		this.window = new int[Math.max(1, windowSamples)];
+		this.spaceSamples = spaceSamples;
+		this.threshold = threshold;
+		this.listener = listener;
+
+		this.reset();
+	}
+
+	/**
+	 * Scale threshold set for reference rate to window of another sample
+	 * rate, sum in window grows with number of samples in it
+	 *
+	 * @param threshold
+	 *            sum of positive amplitudes in window of referenceRate
+	 * @param sampleRate
+	 *            sample rate of processed samples in Hz
+	 * @param referenceRate
+	 *            sample rate, which threshold is set for
+	 * @return
+	 */
+	public static long scaleThreshold(long threshold, int sampleRate,
+			int referenceRate) {
+		int referenceWindow = (int) (referenceRate * WINDOW_TIME);
+		int window = Math.max(1, (int) (sampleRate * WINDOW_TIME));
+
+		return threshold * window / referenceWindow;
+	}
+
+	/**
+	 * Process next block of samples
+	 *
+	 * @param samples
+	 * @param offset
+	 *            first sample to process
+	 * @param length
+	 *            number of samples to process
+	 */
+	public void process(short[] samples, int offset, int length) {
+		int[] window = this.window;
+		int windowLength = window.length;
+		int position = this.windowPosition;
+		long sum = this.windowSum;
+		int end = offset + length;
+
+		for (int i = offset; i < end; i++) {
+			// get only positive amplitudes
+			int ampl = samples[i] > 0 ? samples[i] : 0;
+
+			sum += ampl - window[position];
+			window[position] = ampl;
+			if (++position == windowLength) {
+				position = 0;
+			}
+
+			if (sum > this.threshold) {
+				int windowStart = Math.max(0, this.sampleCount - windowLength + 1);
+
+				// check space between gunShots
+				if (this.lastShotIndex < 0
+						|| windowStart >= this.lastShotIndex + this.spaceSamples) {
+					this.lastShotIndex = windowStart;
+
+					if (this.listener != null) {
+						this.listener.onShot(windowStart);
+					}
+				}
+			}
+
+			this.sampleCount++;
+		}
+
+		this.windowPosition = position;
+		this.windowSum = sum;
+	}
+
+	/**
+	 * Number of processed samples
+	 *
+	 * @return
+	 */
+	public int getSampleCount() {
+		return this.sampleCount;
+	}
+
+	/**
+	 * Forget all processed samples
+	 */
+	public void reset() {
+		for (int i = 0; i < this.window.length; i++) {
+			this.window[i] = 0;
+		}
+		this.windowPosition = 0;
+		this.windowSum = 0;
+		this.sampleCount = 0;
+		this.lastShotIndex = -1;
+	}
+
+	public void setOnShotListener(OnShotListener listener) {
+		this.listener = listener;
+	}
+}
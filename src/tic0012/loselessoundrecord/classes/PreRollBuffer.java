@@ -0,0 +1,107 @@
+package tic0012.loselessoundrecord.classes;
+
+/**
+ * Fixed size circular buffer keeping only last captured samples. Used while
+ * recorder is armed, newest samples overwrite oldest ones, so memory does not
+ * grow however long the capture waits for trigger. Only capture thread
+ * accesses it.
+ * 
+ * @author tic0012, Michal Tich
+ */
+public class PreRollBuffer {
+
+	/**
+	 * Circular sample storage
+	 */
+	private final short[] samples;
+
+	/**
+	 * Number of samples written since start
+	 */
+	private long count = 0;
+
+	/**
+	 * @param capacity
+	 *            number of last samples kept
+	 */
+	public PreRollBuffer(int capacity) {
+		this.samples = new short[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Append samples, oldest ones are overwritten when buffer is full
+	 * 
+	 * @param src
+	 * @param length
+	 *            number of samples from start of src
+	 */
+	public void write(short[] src, int length) {
+		int capacity = this.samples.length;
+		int offset = 0;
+
+		// only last capacity samples can be kept
+		if (length > capacity) {
+			offset = length - capacity;
+			this.count += offset;
+			length = capacity;
+		}
+
+		int position = (int) (this.count % capacity);
+		int first = Math.min(length, capacity - position);
+		System.arraycopy(src, offset, this.samples, position, first);
+		System.arraycopy(src, offset + first, this.samples, 0, length - first);
+
+		this.count += length;
+	}
+
+	/**
+	 * Copy kept samples
+	 * 
+	 * @param from
+	 *            index of first sample counted from start, must be kept
+	 * @param dst
+	 * @param offset
+	 *            position in destination array
+	 * @param length
+	 *            number of samples
+	 */
+	public void read(long from, short[] dst, int offset, int length) {
+		int capacity = this.samples.length;
+
+		if (from < this.getFirstIndex() || from + length > this.count) {
+			throw new IndexOutOfBoundsException("Samples are not kept");
+		}
+
+		int position = (int) (from % capacity);
+		int first = Math.min(length, capacity - position);
+		System.arraycopy(this.samples, position, dst, offset, first);
+		System.arraycopy(this.samples, 0, dst, offset + first, length - first);
+	}
+
+	/**
+	 * Number of samples written since start
+	 * 
+	 * @return
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Index of oldest kept sample
+	 * 
+	 * @return
+	 */
+	public long getFirstIndex() {
+		return Math.max(0, this.count - this.samples.length);
+	}
+
+	/**
+	 * Number of kept samples
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return (int) (this.count - this.getFirstIndex());
+	}
+}
@@ -0,0 +1,149 @@
+package tic0012.loselessoundrecord.classes;
+
+/**
+ * Single producer, single consumer ring of preallocated sample blocks.
+ * Capture thread fills blocks, writer thread empties them. No locks are
+ * used, each index is changed only by one thread, so capture never waits
+ * for storage.
+ *
+ * @author tic0012, Michal Tich
+ */
+public class SampleRingBuffer {
+
+	/**
+	 * Preallocated sample blocks
+	 */
+	private final short[][] blocks;
+
+	/**
+	 * Number of valid samples in each block
+	 */
+	private final int[] lengths;
+
+	/**
+	 * Mask to get block position from index, block count is power of two
+	 */
+	private final int mask;
+
+	/**
+	 * Number of blocks committed by producer, changed only by producer
+	 */
+	private volatile long writeIndex = 0;
+
+	/**
+	 * Number of blocks released by consumer, changed only by consumer
+	 */
+	private volatile long readIndex = 0;
+
+	/**
+	 * Producer will not commit any other block
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Number of blocks dropped because ring was full
+	 */
+	private volatile int overrunCount = 0;
+
+	/**
+	 * @param blockCount
+	 *            minimal number of blocks, rounded up to power of two
+	 * @param blockSize
+	 *            number of samples in one block
+	 */
+	public SampleRingBuffer(int blockCount, int blockSize) {
+		int count = 1;
+		while (count < blockCount) {
+			count <<= 1;
+		}
+
+		this.blocks = new short[count][blockSize];
+		this.lengths = new int[count];
+		this.mask = count - 1;
+	}
+
+	/**
+	 * Producer: get free block to fill
+	 *
+	 * @return free block or null if ring is full
+	 */
+	public short[] claim() {
+		if (this.writeIndex - this.readIndex > this.mask) {
+			return null;
+		}
+
+		return this.blocks[(int) (this.writeIndex & this.mask)];
+	}
+
+	/**
+	 * Producer: pass claimed block to consumer
+	 *
+	 * @param length
+	 *            number of valid samples in block
+	 */
+	public void commit(int length) {
+		this.lengths[(int) (this.writeIndex & this.mask)] = length;
+		this.writeIndex++;
+	}
+
+	/**
+	 * Producer: count block dropped because ring was full
+	 */
+	public void overrun() {
+		this.overrunCount++;
+	}
+
+	/**
+	 * Producer: no other block will be committed
+	 */
+	public void close() {
+		this.closed = true;
+	}
+
+	/**
+	 * Consumer: get oldest committed block
+	 *
+	 * @return block or null if ring is empty
+	 */
+	public short[] peek() {
+		if (this.readIndex == this.writeIndex) {
+			return null;
+		}
+
+		return this.blocks[(int) (this.readIndex & this.mask)];
+	}
+
+	/**
+	 * Consumer: number of valid samples in block returned by peek
+	 *
+	 * @return
+	 */
+	public int peekLength() {
+		return this.lengths[(int) (this.readIndex & this.mask)];
+	}
+
+	/**
+	 * Consumer: return block got by peek back to producer
+	 */
+	public void release() {
+		this.readIndex++;
+	}
+
+	/**
+	 * Consumer: producer is closed and all blocks are released
+	 *
+	 * @return
+	 */
+	public boolean isFinished() {
+		return this.closed && this.readIndex == this.writeIndex;
+	}
+
+	/**
+	 * Number of blocks dropped because ring was full
+	 *
+	 * @return
+	 */
+	public int getOverrunCount() {
+		return this.overrunCount;
+	}
+}
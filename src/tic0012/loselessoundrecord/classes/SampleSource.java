@@ -0,0 +1,79 @@
+package tic0012.loselessoundrecord.classes;
+
+import java.io.IOException;
+
+/**
+ * Source of 16bit samples with random access. Samples of more channels are
+ * interleaved, index counts single samples, not frames.
+ *
+ * @author tic0012, Michal Tich
+ */
+public interface SampleSource {
+
+	/**
+	 * Sample rate in Hz
+	 *
+	 * @return
+	 */
+	public int getSampleRate();
+
+	/**
+	 * Number of channels, 1 = mono, 2 = stereo
+	 *
+	 * @return
+	 */
+	public int getChannels();
+
+	/**
+	 * Total number of samples
+	 *
+	 * @return
+	 */
+	public long getSampleCount();
+
+	/**
+	 * Number of frames at start of record captured before recording start,
+	 * time 0 of record is behind them
+	 *
+	 * @return
+	 */
+	public int getPreRollFrames();
+
+	/**
+	 * Mapping of frames to time of recording session
+	 *
+	 * @return
+	 */
+	public SessionTimeline getTimeline();
+
+	/**
+	 * Get single sample
+	 *
+	 * @param index
+	 * @return
+	 * @throws IOException
+	 */
+	public short getSample(long index) throws IOException;
+
+	/**
+	 * Copy samples into array
+	 *
+	 * @param from
+	 *            index of first sample
+	 * @param dst
+	 *            destination array
+	 * @param offset
+	 *            position in destination array
+	 * @param length
+	 *            maximum number of samples
+	 * @return number of copied samples, -1 if from is behind last sample
+	 * @throws IOException
+	 */
+	public int read(long from, short[] dst, int offset, int length)
+			throws IOException;
+
+	/**
+	 * Release source
+	 */
+	public void close();
+}
@@ -0,0 +1,160 @@
+package tic0012.loselessoundrecord.classes;
+
+import java.io.Serializable;
+
+/**
+ * Maps frames of record file to time of recording session. File starts with
+ * pre-roll captured before recording start, event gated record keeps only
+ * segments of session.
+ *
+ * @author tic0012, Michal Tich
+ */
+public class SessionTimeline implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Sample rate of file in Hz
+	 */
+	private int sampleRate;
+
+	/**
+	 * Frames captured before recording start
+	 */
+	private int preRollFrames;
+
+	/**
+	 * First frame of each segment in session, null if whole session is
+	 * recorded
+	 */
+	private long[] segmentStarts;
+
+	/**
+	 * First frame of each segment in file
+	 */
+	private long[] segmentOffsets;
+
+	/**
+	 * @param sampleRate
+	 *            sample rate of file in Hz
+	 * @param preRollFrames
+	 *            frames captured before recording start
+	 * @param segmentStarts
+	 *            first frame of each segment in session, null if whole
+	 *            session is recorded
+	 * @param segmentOffsets
+	 *            first frame of each segment in file, null if whole session
+	 *            is recorded
+	 */
+	public SessionTimeline(int sampleRate, int preRollFrames,
+			long[] segmentStarts, long[] segmentOffsets) {
+		this.sampleRate = sampleRate;
+		this.preRollFrames = preRollFrames;
+
+		if (segmentStarts != null && segmentStarts.length > 0) {
+			this.segmentStarts = segmentStarts;
+			this.segmentOffsets = segmentOffsets;
+		}
+	}
+
+	/**
+	 * Record keeps only segments of session
+	 *
+	 * @return
+	 */
+	public boolean hasSegments() {
+		return this.segmentStarts != null;
+	}
+
+	/**
+	 * Position of frame in session, the same frame if whole session is
+	 * recorded
+	 *
+	 * @param frame
+	 *            frame index in file
+	 * @return frame index in session
+	 */
+	public long toSessionFrame(long frame) {
+		if (this.segmentStarts == null) {
+			return frame;
+		}
+
+		int segment = this.findSegment(frame);
+
+		return this.segmentStarts[segment] + frame
+				- this.segmentOffsets[segment];
+	}
+
+	/**
+	 * Time of frame from recording start, frames of pre-roll have negative
+	 * time
+	 *
+	 * @param frame
+	 *            frame index in file
+	 * @return time in seconds
+	 */
+	public float toSessionTime(long frame) {
+		return (float) (this.toSessionFrame(frame) - this.preRollFrames)
+				/ (float) this.sampleRate;
+	}
+
+	/**
+	 * Find segment starting in range of file frames
+	 *
+	 * @param from
+	 *            first frame of range
+	 * @param to
+	 *            frame behind range
+	 * @return index of segment, -1 if no segment starts in range
+	 */
+	public int segmentStartingIn(long from, long to) {
+		if (this.segmentStarts == null) {
+			return -1;
+		}
+
+		int segment = this.findSegment(to - 1);
+		if (this.segmentOffsets[segment] < from
+				|| this.segmentOffsets[segment] >= to) {
+			return -1;
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Time of segment start from recording start
+	 *
+	 * @param segment
+	 *            index of segment
+	 * @return time in seconds
+	 */
+	public float getSegmentTime(int segment) {
+		return (float) (this.segmentStarts[segment] - this.preRollFrames)
+				/ (float) this.sampleRate;
+	}
+
+	/**
+	 * Last segment starting before frame, first segment for frames before
+	 * file
+	 *
+	 * @param frame
+	 *            frame index in file
+	 * @return index of segment
+	 */
+	private int findSegment(long frame) {
+		int low = 0;
+		int high = this.segmentOffsets.length - 1;
+
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+
+			if (this.segmentOffsets[middle] <= frame) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		return low;
+	}
+}
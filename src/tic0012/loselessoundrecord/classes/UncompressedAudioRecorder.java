@@ -1,32 +1,30 @@
 package tic0012.loselessoundrecord.classes;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import android.media.AudioFormat;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
+import android.os.Process;
 import android.util.Log;
 
 /**
- * Uncompressed Mono 16bit recorder
- * Sample rate = 44 100 kHz
+ * Uncompressed 16bit recorder, sample rate and channels are set by
+ * CaptureFormat, 44 100 Hz mono by default
  * 
  * @author tic0012, Michal Tich
  */
 public class UncompressedAudioRecorder {
 	
 	/**
-	 * Sample Rate in Hz
-	 * 
-	 * the sample rate expressed in Hertz. 44100Hz is currently the only rate
-	 * that is guaranteed to work on all devices
-	 * 
-	 * @see android.media.MediaRecorder.AudioRecord
+	 * Negotiated capture format
 	 */
-	private final int RECORDER_SAMPLE_RATE = 44100;
+	private CaptureFormat format = CaptureFormat.DEFAULT;
 
 	/**
 	 * the recording source
@@ -36,34 +34,35 @@ public class UncompressedAudioRecorder {
 	private final int AUDIO_SOURCE = MediaRecorder.AudioSource.MIC;
 
 	/**
-	 * Describes the configuration of the audio channels
-	 * 
-	 * @see android.media.AudioFormat
+	 * File extension
 	 */
-	private final int RECORDER_CHANNELS = AudioFormat.CHANNEL_IN_MONO;
+	private final String AUDIO_RECORDER_FILE_EXT_WAV = ".wav";
 
 	/**
-	 * Format in which the audio data is represented
-	 * 
-	 * @see android.media.AudioFormat
+	 * Compressed file extension
 	 */
-	private final int RECORDER_AUDIO_ENCODING = AudioFormat.ENCODING_PCM_16BIT;
+	private final String AUDIO_RECORDER_FILE_EXT_FLAC = ".flac";
 
 	/**
-	 * Number of channel
-	 * 1 = mono, 2 = stereo
+	 * If true, lossless FLAC is written instead of WAV
 	 */
-	private final int CHANNEL_COUNT = 1;
+	private boolean flacOutput = false;
 
 	/**
-	 * Number of bits per Sample
+	 * Stage reporting gunShots for event gated storage, null if whole session
+	 * is written
 	 */
-	private final int RECORDER_BIT_PER_SAMPLE = 16;	
-	
+	private GunshotDetectionStage gateDetection = null;
+
 	/**
-	 * File extension
+	 * Audio kept before gunShot in event gated storage in ms
 	 */
-	private final String AUDIO_RECORDER_FILE_EXT_WAV = ".wav";
+	private int gatePreMillis;
+
+	/**
+	 * Audio kept after gunShot in event gated storage in ms
+	 */
+	private int gatePostMillis;
 	
 	/**
 	 * Folder where to save files
@@ -71,9 +70,9 @@ public class UncompressedAudioRecorder {
 	private String saveFolder;
 	
 	/**
-	 * Temporary filename
+	 * Full path of currently recorded WAV file
 	 */
-	private final String AUDIO_RECORDER_TEMP_FILE = "record_temp.raw";
+	private String outputFilePath;
 
 	/**
 	 * Total size (in bytes) of the buffer where audio data is written to
@@ -89,7 +88,69 @@ public class UncompressedAudioRecorder {
 	/**
 	 * Recording state
 	 */
-	private boolean isRecording = false;
+	private volatile boolean isRecording = false;
+
+	/**
+	 * Pipeline stages getting captured samples
+	 */
+	private ArrayList<CaptureStage> stages = new ArrayList<CaptureStage>();
+
+	/**
+	 * Length of audio in seconds, which ring buffer holds when writer stalls
+	 */
+	private final int RING_SECONDS = 4;
+
+	/**
+	 * Longest writer sleep when ring buffer is empty in ns
+	 */
+	private final long WRITER_PARK_NANOS = 20000000L;
+
+	/**
+	 * Blocks passed from capture thread to writer thread
+	 */
+	private SampleRingBuffer ringBuffer;
+
+	/**
+	 * Thread writing captured data into file
+	 */
+	private Thread writerThread;
+
+	/**
+	 * Capture runs into pre-roll buffer, nothing is written yet
+	 */
+	private volatile boolean isArmed = false;
+
+	/**
+	 * System.nanoTime of recording start while armed, 0 = not triggered
+	 */
+	private volatile long triggerNanos = 0;
+
+	/**
+	 * Last captured samples while armed
+	 */
+	private PreRollBuffer preRoll;
+
+	/**
+	 * Length of audio before trigger written into file in ms
+	 */
+	private int preRollMillis;
+
+	/**
+	 * Frames of pre-roll written at start of file, set before writer starts
+	 */
+	private int preRollFrames = 0;
+
+	/**
+	 * Pre-roll buffer keeps this many ms more, to cover delay between trigger
+	 * and its handling in capture thread
+	 */
+	private final int PRE_ROLL_MARGIN = 500;
+
+	/**
+	 * Thread capturing audio, thread calling startRecording when recorder
+	 * was not armed
+	 */
+	private Thread captureThread;
 	
 	
 	public UncompressedAudioRecorder() {	
@@ -102,11 +163,55 @@ public class UncompressedAudioRecorder {
 	 * Prepare to recording
 	 */
 	private void prepare() {
-		bufferSize = AudioRecord.getMinBufferSize(this.RECORDER_SAMPLE_RATE,
-				this.RECORDER_CHANNELS, this.RECORDER_AUDIO_ENCODING);
+		bufferSize = this.format.getMinBufferSize();
+		
+		recorder = new AudioRecord(this.AUDIO_SOURCE, this.format.getSampleRate(),
+				this.format.getChannelConfig(), this.format.getEncoding(), bufferSize);
+		
+		// format passed getMinBufferSize, but device still refused it
+		if (recorder.getState() != AudioRecord.STATE_INITIALIZED
+				&& !this.format.equals(CaptureFormat.DEFAULT)) {
+			Log.w("recorder", "Capture format " + this.format + " failed, using default");
+			recorder.release();
+			this.format = CaptureFormat.DEFAULT;
+			this.prepare();
+		}
+	}
+	
+	/**
+	 * Set capture format, unsupported format is replaced by closest one the
+	 * device can record. Must be set before recording starts.
+	 * 
+	 * @param requested
+	 * @return format which will be recorded
+	 */
+	public CaptureFormat setCaptureFormat(CaptureFormat requested) {
+		if (this.isArmed || this.isRecording) {
+			return this.format;
+		}
+		
+		CaptureFormat negotiated = CaptureFormat.negotiate(requested);
 		
-		recorder = new AudioRecord(this.AUDIO_SOURCE, this.RECORDER_SAMPLE_RATE,
-				this.RECORDER_CHANNELS, this.RECORDER_AUDIO_ENCODING, bufferSize);		
+		if (!negotiated.equals(this.format)) {
+			this.format = negotiated;
+			
+			// recorder is prepared again for new format
+			if (this.recorder != null) {
+				this.recorder.release();
+				this.recorder = null;
+			}
+		}
+		
+		return this.format;
+	}
+	
+	/**
+	 * Format which is recorded
+	 * 
+	 * @return
+	 */
+	public CaptureFormat getCaptureFormat() {
+		return this.format;
 	}
 
 	/**
@@ -117,7 +222,9 @@ public class UncompressedAudioRecorder {
 		//String filepath = Environment.getExternalStorageDirectory().getPath();		
 		//File file = new File(filepath, this.saveFolder);
 		File file = new File(this.saveFolder);
-		String outputFilePath = file.getAbsolutePath() + "/" + System.currentTimeMillis() + this.AUDIO_RECORDER_FILE_EXT_WAV;
+		String extension = this.isFlacWritten() ? this.AUDIO_RECORDER_FILE_EXT_FLAC
+				: this.AUDIO_RECORDER_FILE_EXT_WAV;
+		String outputFilePath = file.getAbsolutePath() + "/" + System.currentTimeMillis() + extension;
 		
 		if(!file.exists()){
 			file.mkdirs();
@@ -129,72 +236,399 @@ public class UncompressedAudioRecorder {
 	}
 	
 	/**
-	 * Prepare temporary file and return its fullPath
-	 * @return fullPath to temporary file
+	 * Write losslessly compressed FLAC file instead of WAV, must be set
+	 * before recording starts
+	 * 
+	 * @param flacOutput
 	 */
-	private String getTempFilename(){
-		//String filepath = Environment.getExternalStorageDirectory().getPath();
-		//File file = new File(filepath, this.saveFolder);
-		File file = new File(this.saveFolder);
+	public void setFlacOutput(boolean flacOutput) {
+		this.flacOutput = flacOutput;
+	}
+
+	/**
+	 * Write only audio around gunShots into WAV file with segment index,
+	 * silence between them is dropped. Takes precedence over FLAC output.
+	 * Must be set before recording starts.
+	 * 
+	 * @param detection
+	 *            stage reporting gunShots, it must be added to pipeline, null
+	 *            = write whole session
+	 * @param preMillis
+	 *            audio kept before gunShot in ms
+	 * @param postMillis
+	 *            audio kept after gunShot in ms
+	 */
+	public void setEventGate(GunshotDetectionStage detection, int preMillis,
+			int postMillis) {
+		this.gateDetection = detection;
+		this.gatePreMillis = preMillis;
+		this.gatePostMillis = postMillis;
+	}
+
+	/**
+	 * FLAC encoder writes the file
+	 * 
+	 * @return
+	 */
+	private boolean isFlacWritten() {
+		return this.flacOutput && this.gateDetection == null;
+	}
+
+	/**
+	 * Add pipeline stage, which gets samples while recording
+	 * 
+	 * @param stage
+	 */
+	public synchronized void addStage(CaptureStage stage) {
+		this.stages.add(stage);
+	}
+
+	/**
+	 * Remove pipeline stage
+	 * 
+	 * @param stage
+	 */
+	public synchronized void removeStage(CaptureStage stage) {
+		this.stages.remove(stage);
+	}
+
+	/**
+	 * Start capturing into in-memory pre-roll buffer, nothing is written until
+	 * startRecording is called. Last preRollMillis of audio before
+	 * startRecording are written at start of file, so capture start latency
+	 * does not cut beginning of record.
+	 * 
+	 * @param preRollMillis
+	 *            length of audio before recording start kept in file in ms
+	 */
+	public synchronized void arm(int preRollMillis) {
+		if (this.isArmed || this.isRecording) {
+			return;
+		}
 		
-		if(!file.exists()){
-			file.mkdirs();
-		}		
+		if (this.recorder == null) {
+			prepare();
+		}
 		
-		return (file.getAbsolutePath() + "/" + this.AUDIO_RECORDER_TEMP_FILE);
+		int channels = this.format.getChannels();
+		int capacity = (int) ((long) this.format.getSampleRate()
+				* (preRollMillis + this.PRE_ROLL_MARGIN) / 1000) * channels;
+		
+		this.preRollMillis = preRollMillis;
+		this.preRoll = new PreRollBuffer(capacity + this.bufferSize / 2);
+		this.prepareRing(capacity);
+		this.triggerNanos = 0;
+		
+		this.recorder.startRecording();
+		this.isArmed = true;
+		
+		this.captureThread = new Thread(new Runnable() {
+			public void run() {
+				captureAudioData();
+			}
+		}, "AudioRecorder Thread");
+		this.captureThread.start();
+	}
+	
+	/**
+	 * Stop capture started by arm, when recording was not started
+	 */
+	public synchronized void disarm() {
+		if (!this.isArmed) {
+			return;
+		}
+		
+		this.isArmed = false;
+		this.recorder.stop();
+		this.join(this.captureThread);
+		
+		this.recorder.release();
+		this.recorder = null;
+		this.preRoll = null;
+	}
+	
+	/**
+	 * Capture runs into pre-roll buffer
+	 * 
+	 * @return
+	 */
+	public boolean isArmed() {
+		return this.isArmed;
 	}
 	
 	/**
-	 * Start audio recording
+	 * Start audio recording. Calling thread becomes capture thread, captured
+	 * data are written by separate writer thread. When recorder is armed,
+	 * capture thread already runs, it commits pre-roll and starts writer,
+	 * method returns immediately.
 	 */
 	public void startRecording(String savePath) {
 		this.saveFolder = savePath;
+		this.outputFilePath = this.getFilename();
+		
+		this.writerThread = new Thread(new Runnable() {
+			public void run() {
+				writeAudioDataToFile();
+			}
+		}, "AudioWriter Thread");
+		
+		synchronized (this) {
+			if (this.isArmed) {
+				this.isRecording = true;
+				
+				// capture thread commits pre-roll and continues into ring
+				this.triggerNanos = System.nanoTime();
+				this.isArmed = false;
+				return;
+			}
+		}
 		
 		if(this.recorder == null){
 			prepare();
 		}
 		
+		this.prepareRing(0);
+		this.preRollFrames = 0;
+		this.captureThread = Thread.currentThread();
+		
 		this.recorder.startRecording();
 		this.isRecording = true;
 		
-		this.writeAudioDataToFile();
-
+		this.writerThread.start();
+		this.captureAudioData();
 	}
 	
 	/**
-	 * Permanently writes audio data from recorder into file
+	 * Allocate ring buffer between capture and writer thread
+	 * 
+	 * @param extraSamples
+	 *            samples to hold above RING_SECONDS of audio
+	 */
+	private void prepareRing(int extraSamples) {
+		// blocks hold whole frames of all channels
+		int channels = this.format.getChannels();
+		int blockSize = this.bufferSize / 2 / channels * channels;
+		int blockCount = (this.format.getSampleRate() * channels * this.RING_SECONDS
+				+ extraSamples) / blockSize + 1;
+		this.ringBuffer = new SampleRingBuffer(blockCount, blockSize);
+	}
+	
+	/**
+	 * Reads audio data from recorder into ring buffer. Never waits for
+	 * writer, when ring is full, block is dropped and counted as overrun.
+	 */
+	private void captureAudioData() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+		
+		SampleRingBuffer ring = this.ringBuffer;
+		short[] scratch = new short[this.bufferSize / 2];
+		int read = 0;
+		
+		// armed, keep only last samples until recording starts
+		while (this.isArmed && this.triggerNanos == 0) {
+			read = this.recorder.read(scratch, 0, scratch.length);
+			
+			if (read > 0) {
+				this.preRoll.write(scratch, read);
+			}
+			else if (read < 0) {
+				Log.e("MyError", "Error reading data from recorder");
+			}
+		}
+		
+		if (this.triggerNanos != 0) {
+			this.commitPreRoll(ring);
+		}
+		
+		while (this.isRecording) {
+			short[] block = ring.claim();
+			
+			if (block == null) {
+				// keep recorder drained, data are lost anyway
+				this.recorder.read(scratch, 0, scratch.length);
+				ring.overrun();
+				continue;
+			}
+			
+			read = this.recorder.read(block, 0, block.length);
+			
+			if (read > 0) {
+				ring.commit(read);
+				LockSupport.unpark(this.writerThread);
+			}
+			else if (read < 0) {
+				Log.e("MyError", "Error reading data from recorder");
+			}
+		}
+		
+		ring.close();
+		LockSupport.unpark(this.writerThread);
+		
+		if (ring.getOverrunCount() > 0) {
+			Log.w("recorder", "Dropped blocks: " + ring.getOverrunCount());
+		}
+	}
+	
+	/**
+	 * Pass pre-roll before trigger into ring buffer and start writer. Samples
+	 * captured between trigger and this call are in pre-roll too, so they are
+	 * added to preRollMillis. Number of committed frames is kept in file, so
+	 * times are measured from trigger.
+	 * 
+	 * @param ring
+	 */
+	private void commitPreRoll(SampleRingBuffer ring) {
+		PreRollBuffer preRoll = this.preRoll;
+		int channels = this.format.getChannels();
+		long lagFrames = (System.nanoTime() - this.triggerNanos)
+				* this.format.getSampleRate() / 1000000000L;
+		long frames = (long) this.format.getSampleRate() * this.preRollMillis
+				/ 1000 + lagFrames;
+		int length = (int) Math.min(frames * channels, preRoll.size())
+				/ channels * channels;
+		long from = preRoll.getCount() - length;
+		int committed = 0;
+		
+		while (length > 0) {
+			short[] block = ring.claim();
+			
+			if (block == null) {
+				ring.overrun();
+				break;
+			}
+			
+			int size = Math.min(block.length, length);
+			preRoll.read(from, block, 0, size);
+			ring.commit(size);
+			from += size;
+			length -= size;
+			committed += size;
+		}
+		
+		this.preRoll = null;
+		this.preRollFrames = committed / channels;
+		this.writerThread.start();
+	}
+	
+	/**
+	 * Permanently writes audio data from ring buffer into WAV file and passes
+	 * them to pipeline stages. Space for WAV header is reserved at start,
+	 * header is completed and pre-roll chunk added when recording stops. In FLAC output, file is
+	 * written by encoder stage running first in pipeline. In event gated
+	 * storage, file is written by gate stage running last, behind detection
+	 * stage reporting gunShots to it.
 	 */
 	private void writeAudioDataToFile() {
-		byte data[] = new byte[this.bufferSize];
-		String filename = this.getTempFilename();
+		SampleRingBuffer ring = this.ringBuffer;
+		ByteBuffer byteBuffer = ByteBuffer.allocate(this.bufferSize);
+		byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		String filename = this.outputFilePath;
+		long totalAudioLen = 0; // SubChunk2Size, number of bytes of audio data
+		CaptureStage[] stages;
+		boolean stageWrites;
+		
+		synchronized (this) {
+			ArrayList<CaptureStage> allStages = new ArrayList<CaptureStage>(this.stages);
+			
+			if (this.isFlacWritten()) {
+				allStages.add(0, new FlacEncoderStage(filename));
+			}
+			if (this.gateDetection != null) {
+				EventGateStage gate = new EventGateStage(filename,
+						this.gatePreMillis, this.gatePostMillis);
+				this.gateDetection.setFrameListener(gate);
+				allStages.add(gate);
+			}
+			stages = allStages.toArray(new CaptureStage[allStages.size()]);
+			stageWrites = this.isFlacWritten() || this.gateDetection != null;
+		}
 		
 		FileOutputStream os = null;
+		boolean writing = stageWrites;
 
-		try {
-			os = new FileOutputStream(filename);
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+		if (!stageWrites) {
+			try {
+				os = new FileOutputStream(filename);
+				writing = true;
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+			}
 		}
 
-		int read = 0;
-
 		if (os != null) {
-			while (this.isRecording) {
-				read = this.recorder.read(data, 0, this.bufferSize);
-
-				if (AudioRecord.ERROR_INVALID_OPERATION != read) {
+			// reserve space for header, data continue behind it
+			try {
+				WavFile.writeHeader(os.getChannel(), this.format.getSampleRate(),
+						this.format.getChannels(), 0, 0);
+				os.getChannel().position(WavFile.HEADER_SIZE);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		if (writing) {
+			for (CaptureStage stage : stages) {
+				try {
+					stage.onStart(this.format.getSampleRate(),
+							this.format.getChannels(), this.preRollFrames);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		while (!ring.isFinished()) {
+			short[] data = ring.peek();
+			
+			if (data == null) {
+				LockSupport.parkNanos(this.WRITER_PARK_NANOS);
+				continue;
+			}
+			
+			int read = ring.peekLength();
+			
+			if (os != null) {
+				byteBuffer.clear();
+				byteBuffer.asShortBuffer().put(data, 0, read);
+				
+				try {
+					os.write(byteBuffer.array(), 0, read * 2);
+					totalAudioLen += read * 2;
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			
+			if (writing) {
+				for (CaptureStage stage : stages) {
 					try {
-						os.write(data);
+						stage.onSamples(data, read);
 					} catch (IOException e) {
 						e.printStackTrace();
 					}
 				}
-				else{
-					Log.e("MyError", "Error reading data from recorder");
+			}
+			
+			ring.release();
+		}
+		
+		if (writing) {
+			for (CaptureStage stage : stages) {
+				try {
+					stage.onStop();
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
 			}
-
+		}
+		
+		if (os != null) {
+			// complete header with final sizes
 			try {
+				WavFile.writePreRollChunk(os.getChannel(), this.preRollFrames);
+				WavFile.writeHeader(os.getChannel(), this.format.getSampleRate(),
+						this.format.getChannels(), totalAudioLen,
+						WavFile.PRE_ROLL_CHUNK_SIZE);
 				os.close();
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -203,140 +637,61 @@ public class UncompressedAudioRecorder {
 	}
 	
 	/**
-	 * Stop recording and release sources
+	 * Number of captured blocks dropped, because writer was too slow
+	 * 
+	 * @return
+	 */
+	public int getOverrunCount() {
+		if (this.ringBuffer == null) {
+			return 0;
+		}
+		
+		return this.ringBuffer.getOverrunCount();
+	}
+	
+	/**
+	 * Stop recording and release sources. Waits until capture thread ends and
+	 * writer completes the file.
+	 * 
+	 * @return path of recorded file, null if recorder was only armed
 	 */
 	public String stopRecording(){
-		String outputFilePath = getFilename();
+		if (this.isArmed) {
+			this.disarm();
+			return null;
+		}
 		
 		if(this.recorder != null){
 			this.isRecording = false;
 			
+			// stopped recorder unblocks capture thread, it closes ring and
+			// writer finishes file
 			this.recorder.stop();
+			this.join(this.captureThread);
+			this.join(this.writerThread);
 			this.recorder.release();
 			
 			this.recorder = null;			
 		}						
 		
-		Log.d("temp filename", this.getTempFilename());
-		
-		this.copyWaveFile( this.getTempFilename(), outputFilePath );
-		this.deleteTempFile();
-		
-		return outputFilePath;
-	}
-	
-	private void deleteTempFile() {
-		File file = new File(this.getTempFilename());
-				
-		file.delete();
+		return this.outputFilePath;
 	}
 	
 	/**
-	 * Copy RAW data into WAV file
-	 * 
-	 * @param inFilename
-	 * @param outFilename
+	 * Wait until thread ends
 	 * 
-	 * @see https://ccrma.stanford.edu/courses/422/projects/WaveFormat/
+	 * @param thread
+	 *            null or calling thread are not waited for
 	 */
-	private void copyWaveFile(String inFilename, String outFilename) {
-		FileInputStream in = null;
-		FileOutputStream out = null;
-		long totalAudioLen = 0; // SubChunk2Size, number of bytes that file currently contains	
-		long totalDataLen = 0; // ChunkSize        
-		long longSampleRate = this.RECORDER_SAMPLE_RATE;				
-		long byteRate = this.RECORDER_BIT_PER_SAMPLE * this.RECORDER_SAMPLE_RATE
-				* this.CHANNEL_COUNT / 8;
-
-		byte[] data = new byte[this.bufferSize];
-
+	private void join(Thread thread) {
+		if (thread == null || thread == Thread.currentThread()) {
+			return;
+		}
+		
 		try {
-			in = new FileInputStream(inFilename);
-			out = new FileOutputStream(outFilename);
-			totalAudioLen = in.getChannel().size();
-			totalDataLen = totalAudioLen + 36; // 36 + SubChunk2Size			
-
-			WriteWaveFileHeader(out, totalAudioLen, totalDataLen,
-					longSampleRate, this.CHANNEL_COUNT, byteRate);
-
-			while (in.read(data) != -1) {
-				out.write(data);
-			}
-
-			in.close();
-			out.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
+			thread.join();
+		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
 	}
-	
-	/**
-	 * Write Wave header into file Output stream
-	 * 
-	 * @param out
-	 * @param totalAudioLen
-	 * @param totalDataLen
-	 * @param longSampleRate
-	 * @param channels
-	 * @param byteRate
-	 * @throws IOException
-	 * 
-	 * @see https://ccrma.stanford.edu/courses/422/projects/WaveFormat/
-	 */
-	private void WriteWaveFileHeader(
-			FileOutputStream out, long totalAudioLen,
-			long totalDataLen, long longSampleRate, int channels,
-			long byteRate) throws IOException {
-		
-		byte[] header = new byte[44];
-		
-		header[0] = 'R';  // RIFF/WAVE header
-		header[1] = 'I';
-		header[2] = 'F';
-		header[3] = 'F';				
-		header[4] = (byte) (totalDataLen & 0xff); // Final data size
-		header[5] = (byte) ((totalDataLen >> 8) & 0xff);
-		header[6] = (byte) ((totalDataLen >> 16) & 0xff);
-		header[7] = (byte) ((totalDataLen >> 24) & 0xff);		
-		header[8] = 'W';
-		header[9] = 'A';
-		header[10] = 'V';
-		header[11] = 'E';
-		header[12] = 'f';  // 'fmt ' chunk
-		header[13] = 'm';
-		header[14] = 't';
-		header[15] = ' ';		
-		header[16] = 16;  // 4 bytes size of 'fmt ' chunk // Sub-chunk size, 16 for PCM
-		header[17] = 0;
-		header[18] = 0;
-		header[19] = 0;
-		header[20] = 1;  // AudioFormat, 1 for PCM
-		header[21] = 0;
-		header[22] = (byte) channels; // Number of channels, 1 for mono, 2 for stereo
-		header[23] = 0;		
-		header[24] = (byte) (longSampleRate & 0xff); // Sample rate
-		header[25] = (byte) ((longSampleRate >> 8) & 0xff);
-		header[26] = (byte) ((longSampleRate >> 16) & 0xff);
-		header[27] = (byte) ((longSampleRate >> 24) & 0xff);			
-		header[28] = (byte) (byteRate & 0xff); // Byte rate, SampleRate * NumberOfChannels * BitsPerSample / 8
-		header[29] = (byte) ((byteRate >> 8) & 0xff);
-		header[30] = (byte) ((byteRate >> 16) & 0xff);
-		header[31] = (byte) ((byteRate >> 24) & 0xff);			
-		header[32] = (byte) (channels * this.RECORDER_BIT_PER_SAMPLE / 8); // Block align, NumberOfChannels * BitsPerSample / 8
-		header[33] = 0;
-		header[34] = (byte) this.RECORDER_BIT_PER_SAMPLE;  // Bits per sample
-		header[35] = 0;		
-		header[36] = 'd';
-		header[37] = 'a';
-		header[38] = 't';
-		header[39] = 'a';			
-		header[40] = (byte) (totalAudioLen & 0xff); // Data chunk size
-		header[41] = (byte) ((totalAudioLen >> 8) & 0xff);
-		header[42] = (byte) ((totalAudioLen >> 16) & 0xff);
-		header[43] = (byte) ((totalAudioLen >> 24) & 0xff);
-
-		out.write(header, 0, 44);
-	}
 }
@@ -0,0 +1,354 @@
+package tic0012.loselessoundrecord.classes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 16bit PCM WAV file reader. RIFF chunks are parsed, data chunk is memory
+ * mapped, so any sample is reached without reading the file before it.
+ * Event gated records keep only segments of session, their positions in
+ * session are stored in segment index chunk behind data.
+ *
+ * @author tic0012, Michal Tich
+ * @see https://ccrma.stanford.edu/courses/422/projects/WaveFormat/
+ */
+public class WavFile implements SampleSource {
+
+	/**
+	 * PCM audio format in fmt chunk
+	 */
+	private static final int FORMAT_PCM = 1;
+
+	/**
+	 * Supported bits per sample
+	 */
+	private static final int BITS_PER_SAMPLE = 16;
+
+	/**
+	 * Size of chunk header, id and size
+	 */
+	private static final int CHUNK_HEADER_SIZE = 8;
+
+	/**
+	 * Size of header written by writeHeader
+	 */
+	public static final int HEADER_SIZE = 44;
+
+	/**
+	 * Id of segment index chunk. It holds number of segments (int) and for
+	 * each segment its first frame in session (long) and number of frames
+	 * (int), little endian.
+	 */
+	public static final String SEGMENT_CHUNK_ID = "sgmt";
+
+	/**
+	 * Size of one segment in segment index chunk
+	 */
+	public static final int SEGMENT_ENTRY_SIZE = 12;
+
+	/**
+	 * Id of pre-roll chunk. It holds number of frames at start of data
+	 * captured before recording start (int), little endian.
+	 */
+	public static final String PRE_ROLL_CHUNK_ID = "prol";
+
+	/**
+	 * Size of pre-roll chunk with its header
+	 */
+	public static final int PRE_ROLL_CHUNK_SIZE = 12;
+
+	private int sampleRate;
+
+	private int channels;
+
+	/**
+	 * Mapped data chunk
+	 */
+	private ShortBuffer samples;
+
+	/**
+	 * First frame of each segment in session, null if whole session is
+	 * recorded
+	 */
+	private long[] segmentStarts = null;
+
+	/**
+	 * First frame of each segment in file
+	 */
+	private long[] segmentOffsets = null;
+
+	/**
+	 * Frames captured before recording start
+	 */
+	private int preRollFrames = 0;
+
+	/**
+	 * Open and map WAV file
+	 *
+	 * @param filePath
+	 *            absolute path to WAV file
+	 * @throws IOException
+	 *             file cannot be read or is not 16bit PCM WAV
+	 */
+	public WavFile(String filePath) throws IOException {
+		FileInputStream inputStream = new FileInputStream(new File(filePath));
+
+		try {
+			this.open(inputStream.getChannel());
+		} finally {
+			// mapping stays valid after close
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Parse RIFF chunks and map data chunk
+	 *
+	 * @param channel
+	 * @throws IOException
+	 */
+	private void open(FileChannel channel) throws IOException {
+		long fileSize = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(16);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+
+		this.readFully(channel, header, 0, 12);
+		if (!this.hasId(header, 0, "RIFF") || !this.hasId(header, 8, "WAVE")) {
+			throw new IOException("Not a WAV file");
+		}
+
+		boolean formatFound = false;
+		long position = 12;
+
+		while (position + CHUNK_HEADER_SIZE <= fileSize) {
+			this.readFully(channel, header, position, CHUNK_HEADER_SIZE);
+			long chunkSize = header.getInt(4) & 0xffffffffL;
+			long chunkData = position + CHUNK_HEADER_SIZE;
+
+			if (this.hasId(header, 0, "fmt ")) {
+				this.readFully(channel, header, chunkData, 16);
+
+				if (header.getShort(0) != FORMAT_PCM
+						|| header.getShort(14) != BITS_PER_SAMPLE) {
+					throw new IOException("Only 16bit PCM WAV is supported");
+				}
+
+				this.channels = header.getShort(2);
+				this.sampleRate = header.getInt(4);
+				formatFound = true;
+			} else if (this.hasId(header, 0, "data")) {
+				if (!formatFound) {
+					throw new IOException("Missing fmt chunk");
+				}
+
+				// size is not set when recording was interrupted
+				long available = fileSize - chunkData;
+				if (chunkSize == 0 || chunkSize > available) {
+					chunkSize = available;
+				}
+
+				// only whole frames, interrupted recording may end inside
+				// frame
+				long frameSize = 2L * Math.max(1, this.channels);
+				ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY,
+						chunkData, chunkSize - chunkSize % frameSize);
+				data.order(ByteOrder.LITTLE_ENDIAN);
+				this.samples = data.asShortBuffer();
+			} else if (this.hasId(header, 0, SEGMENT_CHUNK_ID)
+					&& chunkSize <= fileSize - chunkData) {
+				this.readSegments(channel, chunkData, (int) chunkSize);
+			} else if (this.hasId(header, 0, PRE_ROLL_CHUNK_ID)
+					&& chunkSize >= 4 && chunkSize <= fileSize - chunkData) {
+				this.readFully(channel, header, chunkData, 4);
+				this.preRollFrames = Math.max(0, header.getInt(0));
+			}
+
+			// chunks are aligned to even size
+			position = chunkData + chunkSize + (chunkSize & 1);
+		}
+
+		if (this.samples == null) {
+			throw new IOException("Missing data chunk");
+		}
+	}
+
+	/**
+	 * Read segment index chunk
+	 *
+	 * @param channel
+	 * @param position
+	 *            position of chunk data
+	 * @param size
+	 *            size of chunk data
+	 * @throws IOException
+	 */
+	private void readSegments(FileChannel channel, long position, int size)
+			throws IOException {
+		ByteBuffer index = ByteBuffer.allocate(size);
+		index.order(ByteOrder.LITTLE_ENDIAN);
+		this.readFully(channel, index, position, size);
+
+		int count = index.getInt(0);
+		if (count <= 0 || count > (size - 4) / SEGMENT_ENTRY_SIZE) {
+			return;
+		}
+
+		this.segmentStarts = new long[count];
+		this.segmentOffsets = new long[count];
+		long offset = 0;
+
+		for (int i = 0; i < count; i++) {
+			int entry = 4 + i * SEGMENT_ENTRY_SIZE;
+
+			this.segmentStarts[i] = index.getLong(entry);
+			this.segmentOffsets[i] = offset;
+			offset += index.getInt(entry + 8) & 0xffffffffL;
+		}
+	}
+
+	/**
+	 * Read exactly length bytes at given file position into buffer start
+	 */
+	private void readFully(FileChannel channel, ByteBuffer buffer,
+			long position, int length) throws IOException {
+		buffer.clear();
+		buffer.limit(length);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of WAV file");
+			}
+		}
+	}
+
+	private boolean hasId(ByteBuffer buffer, int offset, String id) {
+		for (int i = 0; i < 4; i++) {
+			if (buffer.get(offset + i) != id.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public int getSampleRate() {
+		return this.sampleRate;
+	}
+
+	public int getChannels() {
+		return this.channels;
+	}
+
+	public long getSampleCount() {
+		return this.samples.capacity();
+	}
+
+	public int getPreRollFrames() {
+		return this.preRollFrames;
+	}
+
+	public SessionTimeline getTimeline() {
+		return new SessionTimeline(this.sampleRate, this.preRollFrames,
+				this.segmentStarts, this.segmentOffsets);
+	}
+
+	public short getSample(long index) {
+		return this.samples.get((int) index);
+	}
+
+	/**
+	 * Copy samples directly from mapped file, safe for more threads. Only
+	 * whole frames are copied, length is rounded down to multiple of
+	 * channels.
+	 */
+	public int read(long from, short[] dst, int offset, int length) {
+		int count = this.samples.capacity();
+
+		if (from >= count) {
+			return -1;
+		}
+
+		length = (int) Math.min(length, count - from);
+		length -= length % this.channels;
+
+		ShortBuffer view = this.samples.duplicate();
+		view.position((int) from);
+		view.get(dst, offset, length);
+
+		return length;
+	}
+
+	/**
+	 * Write 16bit PCM WAV header at the beginning of file
+	 *
+	 * @param out
+	 * @param sampleRate
+	 *            sample rate in Hz
+	 * @param channels
+	 *            1 = mono, 2 = stereo
+	 * @param totalAudioLen
+	 *            number of bytes of audio data
+	 * @param trailingLen
+	 *            number of bytes of chunks behind data chunk
+	 * @throws IOException
+	 *
+	 * @see https://ccrma.stanford.edu/courses/422/projects/WaveFormat/
+	 */
+	public static void writeHeader(FileChannel out, int sampleRate,
+			int channels, long totalAudioLen, long trailingLen)
+			throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		int blockAlign = channels * BITS_PER_SAMPLE / 8;
+
+		header.put(new byte[] { 'R', 'I', 'F', 'F' }); // RIFF/WAVE header
+		header.putInt((int) (totalAudioLen + 36 + trailingLen)); // ChunkSize
+		header.put(new byte[] { 'W', 'A', 'V', 'E' });
+		header.put(new byte[] { 'f', 'm', 't', ' ' }); // 'fmt ' chunk
+		header.putInt(16); // Sub-chunk size, 16 for PCM
+		header.putShort((short) FORMAT_PCM); // AudioFormat, 1 for PCM
+		header.putShort((short) channels);
+		header.putInt(sampleRate);
+		header.putInt(sampleRate * blockAlign); // Byte rate
+		header.putShort((short) blockAlign); // NumberOfChannels * BitsPerSample / 8
+		header.putShort((short) BITS_PER_SAMPLE);
+		header.put(new byte[] { 'd', 'a', 't', 'a' });
+		header.putInt((int) totalAudioLen); // Data chunk size
+		header.flip();
+
+		out.write(header, 0);
+	}
+
+	/**
+	 * Write pre-roll chunk at current position of file
+	 *
+	 * @param out
+	 * @param preRollFrames
+	 *            frames at start of data captured before recording start
+	 * @throws IOException
+	 */
+	public static void writePreRollChunk(FileChannel out, int preRollFrames)
+			throws IOException {
+		ByteBuffer chunk = ByteBuffer.allocate(PRE_ROLL_CHUNK_SIZE);
+		chunk.order(ByteOrder.LITTLE_ENDIAN);
+
+		chunk.put(PRE_ROLL_CHUNK_ID.getBytes("US-ASCII"));
+		chunk.putInt(4);
+		chunk.putInt(preRollFrames);
+		chunk.flip();
+
+		out.write(chunk);
+	}
+
+	/**
+	 * Mapping is released by garbage collector, drop reference to it
+	 */
+	public void close() {
+		this.samples = ShortBuffer.allocate(0);
+	}
+}
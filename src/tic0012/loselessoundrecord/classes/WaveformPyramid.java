@@ -0,0 +1,381 @@
+package tic0012.loselessoundrecord.classes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Multi-resolution waveform peaks. For each level minimum and maximum of
+ * 64, 256, 1024 and 4096 samples long buckets is kept, so waveform of any
+ * zoom is drawn from a few buckets per pixel instead of all samples.
+ * Pyramid is built while file is read and stored next to WAV file.
+ *
+ * @author tic0012, Michal Tich
+ */
+public class WaveformPyramid {
+
+	/**
+	 * Extension of file with stored pyramid
+	 */
+	public static final String FILE_EXT = ".peaks";
+
+	/**
+	 * Bucket sizes of levels as powers of two, 64, 256, 1024, 4096 samples
+	 */
+	private static final int[] BUCKET_SHIFTS = { 6, 8, 10, 12 };
+
+	/**
+	 * Stored file identification, "PEAK"
+	 */
+	private static final int FILE_MAGIC = 0x5045414b;
+
+	/**
+	 * Stored file format version
+	 */
+	private static final int FILE_VERSION = 1;
+
+	/**
+	 * Sample rate of source samples in Hz
+	 */
+	private int sampleRate;
+
+	/**
+	 * Number of added samples
+	 */
+	private long sampleCount;
+
+	/**
+	 * Buckets of each level, [2 * i] => minimum, [2 * i + 1] => maximum
+	 */
+	private short[][] peaks;
+
+	/**
+	 * Number of buckets in each level
+	 */
+	private int[] bucketCounts;
+
+	/**
+	 * Minimum of bucket being built in each level
+	 */
+	private short[] buildMin;
+
+	/**
+	 * Maximum of bucket being built in each level
+	 */
+	private short[] buildMax;
+
+	/**
+	 * Number of samples in bucket being built in each level
+	 */
+	private int[] buildCount;
+
+	/**
+	 * @param sampleRate
+	 *            sample rate of source samples in Hz
+	 * @param expectedSamples
+	 *            expected number of samples, used for initial capacity
+	 */
+	public WaveformPyramid(int sampleRate, long expectedSamples) {
+		int levels = BUCKET_SHIFTS.length;
+
+		this.sampleRate = sampleRate;
+		this.sampleCount = 0;
+		this.peaks = new short[levels][];
+		this.bucketCounts = new int[levels];
+		this.buildMin = new short[levels];
+		this.buildMax = new short[levels];
+		this.buildCount = new int[levels];
+
+		for (int level = 0; level < levels; level++) {
+			int buckets = (int) (expectedSamples >> BUCKET_SHIFTS[level]) + 1;
+			this.peaks[level] = new short[2 * buckets];
+			this.resetBucket(level);
+		}
+	}
+
+	/**
+	 * Add next block of samples
+	 *
+	 * @param samples
+	 * @param offset
+	 *            first sample to add
+	 * @param length
+	 *            number of samples to add
+	 */
+	public void add(short[] samples, int offset, int length) {
+		int bucketSize = 1 << BUCKET_SHIFTS[0];
+		int end = offset + length;
+		short min = this.buildMin[0];
+		short max = this.buildMax[0];
+		int count = this.buildCount[0];
+
+		for (int i = offset; i < end; i++) {
+			short sample = samples[i];
+
+			if (sample < min) {
+				min = sample;
+			}
+			if (sample > max) {
+				max = sample;
+			}
+
+			if (++count == bucketSize) {
+				this.buildMin[0] = min;
+				this.buildMax[0] = max;
+				this.buildCount[0] = count;
+				this.closeBucket(0);
+
+				min = Short.MAX_VALUE;
+				max = Short.MIN_VALUE;
+				count = 0;
+			}
+		}
+
+		this.buildMin[0] = min;
+		this.buildMax[0] = max;
+		this.buildCount[0] = count;
+		this.sampleCount += length;
+	}
+
+	/**
+	 * Close unfinished buckets at the end of samples, no more samples should
+	 * be added
+	 */
+	public void finish() {
+		for (int level = 0; level < BUCKET_SHIFTS.length; level++) {
+			if (this.buildCount[level] > 0) {
+				this.closeBucket(level);
+			}
+		}
+	}
+
+	/**
+	 * Store bucket being built and merge it into upper level
+	 *
+	 * @param level
+	 */
+	private void closeBucket(int level) {
+		short min = this.buildMin[level];
+		short max = this.buildMax[level];
+		int count = this.buildCount[level];
+		int index = this.bucketCounts[level]++;
+
+		if (2 * index + 1 >= this.peaks[level].length) {
+			short[] grown = new short[this.peaks[level].length * 2];
+			System.arraycopy(this.peaks[level], 0, grown, 0,
+					this.peaks[level].length);
+			this.peaks[level] = grown;
+		}
+
+		this.peaks[level][2 * index] = min;
+		this.peaks[level][2 * index + 1] = max;
+		this.resetBucket(level);
+
+		int upper = level + 1;
+		if (upper < BUCKET_SHIFTS.length) {
+			if (min < this.buildMin[upper]) {
+				this.buildMin[upper] = min;
+			}
+			if (max > this.buildMax[upper]) {
+				this.buildMax[upper] = max;
+			}
+			this.buildCount[upper] += count;
+
+			if (this.buildCount[upper] == 1 << BUCKET_SHIFTS[upper]) {
+				this.closeBucket(upper);
+			}
+		}
+	}
+
+	private void resetBucket(int level) {
+		this.buildMin[level] = Short.MAX_VALUE;
+		this.buildMax[level] = Short.MIN_VALUE;
+		this.buildCount[level] = 0;
+	}
+
+	/**
+	 * Choose coarsest level, which is still finer than one pixel
+	 *
+	 * @param samplesPerPixel
+	 *            number of source samples shown in one pixel
+	 * @return level index
+	 */
+	public int getLevel(int samplesPerPixel) {
+		int level = 0;
+
+		while (level + 1 < BUCKET_SHIFTS.length
+				&& (1 << BUCKET_SHIFTS[level + 1]) <= samplesPerPixel) {
+			level++;
+		}
+
+		return level;
+	}
+
+	/**
+	 * Get minimum and maximum of samples in range, range is aligned to
+	 * buckets of given level
+	 *
+	 * @param level
+	 *            level index
+	 * @param from
+	 *            first sample, inclusive
+	 * @param to
+	 *            last sample, exclusive
+	 * @param peak
+	 *            output, [0] => minimum, [1] => maximum
+	 * @return false if range contains no samples
+	 */
+	public boolean getPeak(int level, long from, long to, short[] peak) {
+		int shift = BUCKET_SHIFTS[level];
+		int first = (int) (from >> shift);
+		int last = (int) Math.min((to + (1 << shift) - 1) >> shift,
+				this.bucketCounts[level]);
+
+		if (first >= last) {
+			return false;
+		}
+
+		short[] buckets = this.peaks[level];
+		short min = Short.MAX_VALUE;
+		short max = Short.MIN_VALUE;
+
+		for (int i = first; i < last; i++) {
+			if (buckets[2 * i] < min) {
+				min = buckets[2 * i];
+			}
+			if (buckets[2 * i + 1] > max) {
+				max = buckets[2 * i + 1];
+			}
+		}
+
+		peak[0] = min;
+		peak[1] = max;
+
+		return true;
+	}
+
+	public int getSampleRate() {
+		return this.sampleRate;
+	}
+
+	public long getSampleCount() {
+		return this.sampleCount;
+	}
+
+	/**
+	 * File with stored pyramid for WAV file
+	 *
+	 * @param wavPath
+	 *            absolute path to WAV file
+	 * @return
+	 */
+	public static File getPeaksFile(String wavPath) {
+		int dot = wavPath.lastIndexOf('.');
+		if (dot > wavPath.lastIndexOf('/')) {
+			wavPath = wavPath.substring(0, dot);
+		}
+
+		return new File(wavPath + FILE_EXT);
+	}
+
+	/**
+	 * Store finished pyramid into file
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(this.sampleRate);
+			out.writeLong(this.sampleCount);
+			out.writeInt(BUCKET_SHIFTS.length);
+
+			for (int level = 0; level < BUCKET_SHIFTS.length; level++) {
+				short[] buckets = this.peaks[level];
+				int count = 2 * this.bucketCounts[level];
+
+				out.writeInt(BUCKET_SHIFTS[level]);
+				out.writeInt(this.bucketCounts[level]);
+				for (int i = 0; i < count; i++) {
+					out.writeShort(buckets[i]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load stored pyramid
+	 *
+	 * @param file
+	 * @param sampleCount
+	 *            number of samples in WAV file, stored pyramid must match it
+	 * @return pyramid or null if file does not exist or does not match
+	 */
+	public static WaveformPyramid load(File file, long sampleCount) {
+		if (!file.exists()) {
+			return null;
+		}
+
+		DataInputStream in = null;
+
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+				return null;
+			}
+
+			int sampleRate = in.readInt();
+			long storedCount = in.readLong();
+			if (storedCount != sampleCount
+					|| in.readInt() != BUCKET_SHIFTS.length) {
+				return null;
+			}
+
+			WaveformPyramid pyramid = new WaveformPyramid(sampleRate, 0);
+			pyramid.sampleCount = storedCount;
+
+			for (int level = 0; level < BUCKET_SHIFTS.length; level++) {
+				if (in.readInt() != BUCKET_SHIFTS[level]) {
+					return null;
+				}
+
+				int buckets = in.readInt();
+				short[] peaks = new short[2 * buckets];
+				for (int i = 0; i < peaks.length; i++) {
+					peaks[i] = in.readShort();
+				}
+
+				pyramid.peaks[level] = peaks;
+				pyramid.bucketCounts[level] = buckets;
+			}
+
+			return pyramid;
+		} catch (IOException e) {
+			e.printStackTrace();
+
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+}
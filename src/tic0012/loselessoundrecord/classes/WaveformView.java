@@ -0,0 +1,185 @@
+package tic0012.loselessoundrecord.classes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * Waveform picture of whole recording. Only tiles in visible part are
+ * printed, few last used tiles are cached, so memory does not grow with
+ * recording length. Visible part is taken from scrolling parent, clip bounds
+ * cover whole view with hardware acceleration, so view is drawn again on each
+ * scroll.
+ *
+ * @author tic0012, Michal Tich
+ */
+public class WaveformView extends View {
+
+	/**
+	 * Width of one tile in px
+	 */
+	private static final int TILE_WIDTH = 256;
+
+	/**
+	 * Maximum number of cached tiles, must be more than visible tiles
+	 */
+	private static final int MAX_TILES = 8;
+
+	/**
+	 * Printer of tiles
+	 */
+	private AmplitudePrinter printer;
+
+	/**
+	 * Printed tiles by index, in access order
+	 */
+	private LinkedHashMap<Integer, Bitmap> tiles;
+
+	/**
+	 * Visible part of view
+	 */
+	private Rect visibleBounds = new Rect();
+
+	/**
+	 * Index of first tile drawn in current frame
+	 */
+	private int firstVisible = 0;
+
+	/**
+	 * Index of last tile drawn in current frame
+	 */
+	private int lastVisible = -1;
+
+	/**
+	 * Draw newly visible tiles when parent scrolls
+	 */
+	private ViewTreeObserver.OnScrollChangedListener scrollListener = new ViewTreeObserver.OnScrollChangedListener() {
+		public void onScrollChanged() {
+			invalidate();
+		}
+	};
+
+	public WaveformView(Context context) {
+		super(context);
+
+		this.init();
+	}
+
+	public WaveformView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+
+		this.init();
+	}
+
+	private void init() {
+		this.tiles = new LinkedHashMap<Integer, Bitmap>(MAX_TILES + 1, 0.75f,
+				true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Integer, Bitmap> eldest) {
+				int index = eldest.getKey();
+
+				// tile drawn in current frame stays, display list uses it
+				return this.size() > MAX_TILES
+						&& (index < firstVisible || index > lastVisible);
+			}
+		};
+	}
+
+	/**
+	 * Set printer with prepared amplitudes, picture is printed again
+	 *
+	 * @param printer
+	 */
+	public void setPrinter(AmplitudePrinter printer) {
+		this.printer = printer;
+
+		this.clearTiles();
+		this.requestLayout();
+		this.invalidate();
+	}
+
+	/**
+	 * Drop all printed tiles. Tiles are not recycled, display list of last
+	 * frame may still draw them, garbage collector releases them.
+	 */
+	public void clearTiles() {
+		this.tiles.clear();
+	}
+
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		if (this.printer == null) {
+			this.setMeasuredDimension(0, 0);
+		} else {
+			this.setMeasuredDimension(this.printer.getWidth(),
+					this.printer.getHeight());
+		}
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+
+		if (this.printer == null || this.printer.getWidth() == 0
+				|| !this.getLocalVisibleRect(this.visibleBounds)) {
+			return;
+		}
+
+		int first = Math.max(0, this.visibleBounds.left) / TILE_WIDTH;
+		int last = (Math.min(this.visibleBounds.right, this.printer.getWidth()) - 1)
+				/ TILE_WIDTH;
+		this.firstVisible = first;
+		this.lastVisible = last;
+
+		for (int index = first; index <= last; index++) {
+			canvas.drawBitmap(this.getTile(index, canvas.getDensity()), index
+					* TILE_WIDTH, 0, null);
+		}
+	}
+
+	/**
+	 * Get cached tile or print it
+	 *
+	 * @param index
+	 * @param density
+	 * @return
+	 */
+	private Bitmap getTile(int index, int density) {
+		Bitmap tile = this.tiles.get(index);
+
+		if (tile == null) {
+			int firstColumn = index * TILE_WIDTH;
+			int width = Math.min(TILE_WIDTH, this.printer.getWidth()
+					- firstColumn);
+
+			tile = this.printer.printTile(firstColumn, width, density);
+			this.tiles.put(index, tile);
+		}
+
+		return tile;
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+
+		this.getViewTreeObserver().addOnScrollChangedListener(
+				this.scrollListener);
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+
+		this.getViewTreeObserver().removeOnScrollChangedListener(
+				this.scrollListener);
+		this.clearTiles();
+	}
+}
@@ -0,0 +1,282 @@
+package tic0012.loselessoundrecord.model;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+/**
+ * Asynchronous facade of model. Queries run on small bounded background
+ * executor, results are delivered on main thread unless request was
+ * cancelled. Results of cancelled requests holding resources are released.
+ *
+ * @author tic0012, Michal Tich
+ */
+public class AsyncRepository<T> {
+
+	/**
+	 * Number of background threads, shared by all repositories
+	 */
+	private static final int POOL_SIZE = 2;
+
+	/**
+	 * Maximum number of waiting queries
+	 */
+	private static final int QUEUE_SIZE = 32;
+
+	/**
+	 * Background executor shared by all repositories
+	 */
+	private static ThreadPoolExecutor executor;
+
+	/**
+	 * Handler posting results to main thread
+	 */
+	private static Handler mainHandler;
+
+	/**
+	 * Wrapped model
+	 */
+	private IModel<T> model;
+
+	/**
+	 * Work done on background thread
+	 */
+	public interface Query<R> {
+
+		/**
+		 * Run query, called on background thread
+		 *
+		 * @return
+		 * @throws Exception
+		 */
+		public R run() throws Exception;
+	}
+
+	/**
+	 * Query whose result holds resources, like Cursor. Result of cancelled
+	 * request is released instead of delivered.
+	 */
+	public interface ReleasableQuery<R> extends Query<R> {
+
+		/**
+		 * Release result nobody receives, called on background or main
+		 * thread
+		 *
+		 * @param result
+		 */
+		public void release(R result);
+	}
+
+	/**
+	 * Receiver of query result, called on main thread
+	 */
+	public interface Callback<R> {
+
+		/**
+		 * Query finished
+		 *
+		 * @param result
+		 */
+		public void onResult(R result);
+
+		/**
+		 * Query failed or was rejected
+		 *
+		 * @param e
+		 */
+		public void onError(Exception e);
+	}
+
+	/**
+	 * Handle of submitted query
+	 */
+	public static class Request {
+
+		private volatile boolean cancelled = false;
+
+		private Future<?> future;
+
+		/**
+		 * Stop waiting query, callback of running query is not called
+		 */
+		public void cancel() {
+			this.cancelled = true;
+
+			if (this.future != null) {
+				this.future.cancel(false);
+			}
+		}
+
+		public boolean isCancelled() {
+			return this.cancelled;
+		}
+	}
+
+	/**
+	 * @param model
+	 *            model to run queries on
+	 */
+	public AsyncRepository(IModel<T> model) {
+		this.model = model;
+
+		initExecutor();
+	}
+
+	/**
+	 * Wrapped model
+	 *
+	 * @return
+	 */
+	public IModel<T> getModel() {
+		return this.model;
+	}
+
+	/**
+	 * Get object from DB
+	 *
+	 * @param id
+	 * @param callback
+	 * @return
+	 */
+	public Request get(final long id, Callback<T> callback) {
+		return this.execute(new Query<T>() {
+			public T run() {
+				return model.get(id);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Save object into DB
+	 *
+	 * @param o
+	 * @param callback
+	 * @return
+	 */
+	public Request add(final T o, Callback<T> callback) {
+		return this.execute(new Query<T>() {
+			public T run() throws DBException {
+				return model.add(o);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Delete object from DB
+	 *
+	 * @param o
+	 * @param callback
+	 * @return
+	 */
+	public Request remove(final T o, Callback<Boolean> callback) {
+		return this.execute(new Query<Boolean>() {
+			public Boolean run() throws CannotDeleteException {
+				return model.remove(o);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Run any query on background thread
+	 *
+	 * @param query
+	 * @param callback
+	 * @return request to cancel
+	 */
+	public <R> Request execute(final Query<R> query, final Callback<R> callback) {
+		final Request request = new Request();
+
+		try {
+			request.future = executor.submit(new Runnable() {
+				public void run() {
+					if (request.isCancelled()) {
+						return;
+					}
+
+					try {
+						deliverResult(request, query, callback, query.run());
+					} catch (Exception e) {
+						deliverError(request, callback, e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			deliverError(request, callback, e);
+		}
+
+		return request;
+	}
+
+	private static <R> void deliverResult(final Request request,
+			final Query<R> query, final Callback<R> callback, final R result) {
+		if (request.isCancelled()) {
+			release(query, result);
+			return;
+		}
+
+		mainHandler.post(new Runnable() {
+			public void run() {
+				if (!request.isCancelled()) {
+					callback.onResult(result);
+				} else {
+					release(query, result);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Release result of cancelled request, if query holds resources
+	 *
+	 * @param query
+	 * @param result
+	 */
+	private static <R> void release(Query<R> query, R result) {
+		if (query instanceof ReleasableQuery && result != null) {
+			((ReleasableQuery<R>) query).release(result);
+		}
+	}
+
+	private static <R> void deliverError(final Request request,
+			final Callback<R> callback, final Exception e) {
+		mainHandler.post(new Runnable() {
+			public void run() {
+				if (!request.isCancelled()) {
+					callback.onError(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Create shared executor on first use
+	 */
+	private static synchronized void initExecutor() {
+		if (executor != null) {
+			return;
+		}
+
+		mainHandler = new Handler(Looper.getMainLooper());
+		executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						QUEUE_SIZE), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger(1);
+
+					public Thread newThread(final Runnable r) {
+						return new Thread(new Runnable() {
+							public void run() {
+								Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+								r.run();
+							}
+						}, "Repository #" + count.getAndIncrement());
+					}
+				});
+	}
+}
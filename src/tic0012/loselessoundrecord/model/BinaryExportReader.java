@@ -0,0 +1,132 @@
+package tic0012.loselessoundrecord.model;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+/**
+ * Decoder of compact binary export. Decoded categories, records and
+ * gunShots are passed to export writer in the same order as they were
+ * exported, so binary export can be converted into another format.
+ *
+ * @author tic0012, Michal Tich
+ * @see BinaryExportWriter
+ */
+public class BinaryExportReader {
+
+	private DataInputStream in;
+
+	/**
+	 * @param in
+	 *            buffered stream of binary export, it is closed by caller
+	 */
+	public BinaryExportReader(InputStream in) {
+		this.in = new DataInputStream(in);
+	}
+
+	/**
+	 * Decode whole export and pass its content to writer. Writer must be
+	 * started and it is not finished, both is done by caller.
+	 *
+	 * @param writer
+	 * @throws IOException
+	 *             stream is not binary export or it is damaged
+	 */
+	public void readTo(ExportWriter writer) throws IOException {
+		if (this.in.readInt() != BinaryExportWriter.MAGIC) {
+			throw new IOException("Not a binary export");
+		}
+		if (this.in.readUnsignedByte() != BinaryExportWriter.VERSION) {
+			throw new IOException("Unsupported binary export version");
+		}
+
+		boolean categoryStarted = false;
+		long recordId = 0;
+		long recordDate = 0;
+
+		while (true) {
+			int tag = this.in.readUnsignedByte();
+
+			switch (tag) {
+			case BinaryExportWriter.TAG_CATEGORY:
+				if (categoryStarted) {
+					writer.endCategory();
+				}
+
+				long id = this.readVarLong();
+				byte[] name = new byte[(int) this.readVarLong()];
+				this.in.readFully(name);
+
+				writer.startCategory(id, new String(name, "UTF-8"));
+				categoryStarted = true;
+				break;
+
+			case BinaryExportWriter.TAG_RECORD:
+				if (!categoryStarted) {
+					throw new IOException("Record out of category");
+				}
+
+				recordId += this.readZigZag();
+				recordDate += this.readZigZag();
+				long shotCount = this.readVarLong();
+
+				writer.startRecord(recordId, new Date(recordDate));
+
+				long shotId = 0;
+				long shotTime = 0;
+				for (long i = 0; i < shotCount; i++) {
+					shotId += this.readZigZag();
+					shotTime += this.readZigZag();
+
+					writer.gunshot(shotId, (float) (shotTime / 1000000.0));
+				}
+
+				writer.endRecord();
+				break;
+
+			case BinaryExportWriter.TAG_END:
+				if (categoryStarted) {
+					writer.endCategory();
+				}
+				return;
+
+			default:
+				throw new IOException("Unknown binary export tag " + tag);
+			}
+		}
+	}
+
+	/**
+	 * Read signed value written as zigzag varint
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private long readZigZag() throws IOException {
+		long value = this.readVarLong();
+
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Read unsigned value written by 7 bits, lowest bits first
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private long readVarLong() throws IOException {
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = this.in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Malformed varint in binary export");
+	}
+}
@@ -0,0 +1,151 @@
+package tic0012.loselessoundrecord.model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+/**
+ * Compact binary export. File starts with magic number and version, then
+ * tagged blocks follow:
+ * <ul>
+ * <li>TAG_CATEGORY: varint id, varint UTF-8 length, UTF-8 name</li>
+ * <li>TAG_RECORD: zigzag varint id and date (ms) as deltas to previous
+ * record, varint gunShots count, then for each gunShot zigzag varint id
+ * delta and zigzag varint time delta in microseconds, both to previous
+ * gunShot of record</li>
+ * <li>TAG_END: end of file</li>
+ * </ul>
+ * Records belong to last category.
+ * 
+ * @author tic0012, Michal Tich
+ */
+public class BinaryExportWriter implements ExportWriter {
+
+	/**
+	 * "GSHX"
+	 */
+	public static final int MAGIC = 0x47534858;
+
+	public static final int VERSION = 1;
+
+	public static final int TAG_END = 0;
+
+	public static final int TAG_CATEGORY = 1;
+
+	public static final int TAG_RECORD = 2;
+
+	private DataOutputStream out;
+
+	private long previousRecordId = 0;
+
+	private long previousDate = 0;
+
+	private long recordId;
+
+	private long recordDate;
+
+	/**
+	 * GunShots of current record, written when record ends as count is needed
+	 */
+	private long[] shotIds = new long[64];
+
+	private long[] shotTimes = new long[64];
+
+	private int shotCount;
+
+	public String getExtension() {
+		return "gsx";
+	}
+
+	public String getMimeType() {
+		return "application/octet-stream";
+	}
+
+	public void start(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+	}
+
+	public void startCategory(long id, String name) throws IOException {
+		byte[] nameBytes = name.getBytes("UTF-8");
+
+		this.out.writeByte(TAG_CATEGORY);
+		this.writeVarLong(id);
+		this.writeVarLong(nameBytes.length);
+		this.out.write(nameBytes);
+	}
+
+	public void endCategory() throws IOException {
+	}
+
+	public void startRecord(long id, Date dateRecorded) throws IOException {
+		this.recordId = id;
+		this.recordDate = dateRecorded.getTime();
+		this.shotCount = 0;
+	}
+
+	public void endRecord() throws IOException {
+		this.out.writeByte(TAG_RECORD);
+		this.writeZigZag(this.recordId - this.previousRecordId);
+		this.writeZigZag(this.recordDate - this.previousDate);
+		this.writeVarLong(this.shotCount);
+
+		long previousId = 0;
+		long previousTime = 0;
+		for (int i = 0; i < this.shotCount; i++) {
+			this.writeZigZag(this.shotIds[i] - previousId);
+			this.writeZigZag(this.shotTimes[i] - previousTime);
+			previousId = this.shotIds[i];
+			previousTime = this.shotTimes[i];
+		}
+
+		this.previousRecordId = this.recordId;
+		this.previousDate = this.recordDate;
+	}
+
+	public void gunshot(long id, float time) throws IOException {
+		if (this.shotCount == this.shotIds.length) {
+			long[] ids = new long[this.shotCount * 2];
+			long[] times = new long[this.shotCount * 2];
+			System.arraycopy(this.shotIds, 0, ids, 0, this.shotCount);
+			System.arraycopy(this.shotTimes, 0, times, 0, this.shotCount);
+			this.shotIds = ids;
+			this.shotTimes = times;
+		}
+
+		this.shotIds[this.shotCount] = id;
+		this.shotTimes[this.shotCount] = Math.round(time * 1000000.0);
+		this.shotCount++;
+	}
+
+	public void finish() throws IOException {
+		this.out.writeByte(TAG_END);
+		this.out.flush();
+	}
+
+	/**
+	 * Write signed value as zigzag varint, small negative deltas stay short
+	 * 
+	 * @param value
+	 * @throws IOException
+	 */
+	private void writeZigZag(long value) throws IOException {
+		this.writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Write unsigned value by 7 bits, lowest bits first
+	 * 
+	 * @param value
+	 * @throws IOException
+	 */
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			this.out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		this.out.writeByte((int) value);
+	}
+}
@@ -1,19 +1,19 @@
 package tic0012.loselessoundrecord.model;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
-import org.xmlpull.v1.XmlSerializer;
 import tic0012.loselessoundrecord.classes.Category;
+import tic0012.loselessoundrecord.classes.CategorySummary;
 import tic0012.loselessoundrecord.classes.Gunshot;
 import tic0012.loselessoundrecord.classes.Record;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.text.format.DateFormat;
-import android.util.Xml;
 
 /**
  * Category of GunShots repository model, singleton
@@ -32,11 +32,52 @@ public class CategoryModel implements IModel<Category> {
 	 */
 	public final long DEFAULT_CATEGORY_ID = 1;
 
+	/**
+	 * Number of records column in summary cursor
+	 */
+	public static final String COLUMN_RECORD_COUNT = "rec_count";
+
+	/**
+	 * Size of export output buffer in bytes
+	 */
+	private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Number of progress updates published during whole export
+	 */
+	private static final int EXPORT_PROGRESS_STEPS = 100;
+
+	/**
+	 * Observer of running export
+	 */
+	public interface ExportProgress {
+
+		/**
+		 * Export is stopped when true is returned
+		 * 
+		 * @return
+		 */
+		public boolean isCancelled();
+
+		/**
+		 * Some rows were exported
+		 * 
+		 * @param exportedRows
+		 * @param totalRows
+		 */
+		public void onProgress(int exportedRows, int totalRows);
+	}
+
 	/**
 	 * Record model
 	 */
 	private RecordModel recordModel;
 
+	/**
+	 * GunShot model
+	 */
+	private GunshotModel gunShotModel;
+
 	/**
 	 * Work with DB
 	 */
@@ -49,6 +90,7 @@ public class CategoryModel implements IModel<Category> {
 		//this.dbHandler = new DatabaseHandler(context);
 		this.dbHandler = DatabaseHandler.getInstance(context);
 		this.recordModel = RecordModel.getInstance(context);
+		this.gunShotModel = GunshotModel.getInstance(context);
 	}
 
 	/**
@@ -127,19 +169,11 @@ public class CategoryModel implements IModel<Category> {
 					"Default category cannot be deleted");
 		}
 
-		// delete category
+		// delete category, records and gunShots in it are deleted on cascade
 		result = this.dbHandler.delete(DatabaseHandler.TB_CATEGORY_NAME,
 				whereClause, whereArgs);
 
-		// delete records in it
 		if (result > 0) {
-			// boolean recordResult = false;
-			for (Record record : cat.records) {
-				this.recordModel.remove(record);
-			}
-			// result = this.dbHandler.delete(DatabaseHandler.TB_RECORD_NAME,
-			// whereClause, whereArgs);
-
 			return true;
 		}
 
@@ -150,48 +184,12 @@ public class CategoryModel implements IModel<Category> {
 	 * Get single Category from DB by ID
 	 */
 	public Category get(long id) {
-		String query = "SELECT * FROM " + DatabaseHandler.TB_CATEGORY_NAME
-				+ " WHERE " + DatabaseHandler.COLUMN_CATEGORY_ID
-				+ " = ? LIMIT 1";
 		String[] selectionArgs = { String.valueOf(id) };
-		ArrayList<Record> records = new ArrayList<Record>();
-		Category category;
-
-		// get Category
-		Cursor cursor = this.dbHandler.select(query, selectionArgs);
-
-		if (cursor != null && cursor.getCount() > 0) {
-			cursor.moveToFirst();
-
-			category = this
-					.categoryFactory(
-							Long.parseLong(cursor.getString(cursor
-									.getColumnIndex(DatabaseHandler.COLUMN_CATEGORY_ID))),
-							cursor.getString(cursor
-									.getColumnIndex(DatabaseHandler.COLUMN_CATEGORY_NAME)),
-							records);
-			cursor.close();
-
-			// get all records in category
-			query = "SELECT * FROM " + DatabaseHandler.TB_RECORD_NAME
-					+ " WHERE " + DatabaseHandler.COLUMN_RECORD_CATEGORY_ID
-					+ " = ?";
-			cursor = this.dbHandler.select(query, selectionArgs);
-			if (cursor.moveToFirst() && cursor.getCount() > 0) {
-				do {
-
-					Record record = this.recordModel.get(cursor.getLong(cursor
-							.getColumnIndex(DatabaseHandler.COLUMN_RECORD_ID)));
-
-					// Adding record to list
-					records.add(record);
-				} while (cursor.moveToNext());
-
-				category.records = records;
-			}
-			cursor.close();
+		ArrayList<Category> categories = this.select("c."
+				+ DatabaseHandler.COLUMN_CATEGORY_ID + " = ?", selectionArgs);
 
-			return category;
+		if (categories.size() > 0) {
+			return categories.get(0);
 		}
 
 		return null;
@@ -203,60 +201,166 @@ public class CategoryModel implements IModel<Category> {
 	 * @return
 	 */
 	public ArrayList<Category> getAll() {
-		ArrayList<Category> categories = new ArrayList<Category>();
-		String query = "SELECT * FROM " + DatabaseHandler.TB_CATEGORY_NAME
-				+ " ORDER BY " + DatabaseHandler.COLUMN_CATEGORY_ID +" ASC";
-
-		// get Category
-		Cursor cursor = this.dbHandler.select(query, null);
+		ArrayList<Category> categories = this.select(null, null);
 
 		// no category found
-		if (!cursor.moveToFirst() && cursor.getCount() < 1) {
+		if (categories.size() < 1) {
 			return null;
 		}
 
-		// get all categories
-		do {
-			long catId = Long.parseLong(cursor.getString(cursor
-					.getColumnIndex(DatabaseHandler.COLUMN_CATEGORY_ID)));
-
-			Category category = this
-					.categoryFactory(
-							catId,
-							cursor.getString(cursor
-									.getColumnIndex(DatabaseHandler.COLUMN_CATEGORY_NAME)),
-							new ArrayList<Record>());
-
-			// get all records in category			
-			String query2 = "SELECT " + DatabaseHandler.COLUMN_RECORD_ID + " FROM "
-					+ DatabaseHandler.TB_RECORD_NAME + " WHERE "
-					+ DatabaseHandler.COLUMN_RECORD_CATEGORY_ID + " = ? "
-					+ "ORDER BY " + DatabaseHandler.COLUMN_RECORD_ID +" DESC";
-			String[] selectionArgs = { String.valueOf(catId) };
-			Cursor recordCursor = this.dbHandler.select(query2, selectionArgs);
-
-			// some records found
-			
-			if (recordCursor.moveToFirst() && recordCursor.getCount() > 0) {
-				do {					
-					Record record = this.recordModel
-							.get(recordCursor.getLong(recordCursor
-									.getColumnIndex(DatabaseHandler.COLUMN_RECORD_ID)));
-
-					// Adding record to list
-					category.records.add(record);						
-				} while (recordCursor.moveToNext());				
-			}	
-			recordCursor.close();
-			
-			categories.add(category);
-
-		} while (cursor.moveToNext());
+		return categories;
+	}
+
+	/**
+	 * Get id, name and number of records of all categories, records are not
+	 * loaded
+	 * 
+	 * @return
+	 */
+	public ArrayList<CategorySummary> getSummaries() {
+		ArrayList<CategorySummary> summaries = new ArrayList<CategorySummary>();
+		Cursor cursor = this.getSummaryCursor();
+
+		while (cursor.moveToNext()) {
+			summaries.add(this.summaryFactory(cursor));
+		}
+		cursor.close();
+
+		return summaries;
+	}
+
+	/**
+	 * Cursor over all categories with number of their records, columns are
+	 * _id, name and COLUMN_RECORD_COUNT
+	 * 
+	 * @return
+	 */
+	public Cursor getSummaryCursor() {
+		String query = "SELECT c." + DatabaseHandler.COLUMN_CATEGORY_ID
+				+ " AS " + DatabaseHandler.COLUMN_CATEGORY_ID + ", c."
+				+ DatabaseHandler.COLUMN_CATEGORY_NAME + " AS "
+				+ DatabaseHandler.COLUMN_CATEGORY_NAME + ", COUNT(r."
+				+ DatabaseHandler.COLUMN_RECORD_ID + ") AS "
+				+ COLUMN_RECORD_COUNT
+				+ " FROM " + DatabaseHandler.TB_CATEGORY_NAME + " c"
+				+ " LEFT JOIN " + DatabaseHandler.TB_RECORD_NAME + " r ON r."
+				+ DatabaseHandler.COLUMN_RECORD_CATEGORY_ID + " = c."
+				+ DatabaseHandler.COLUMN_CATEGORY_ID
+				+ " GROUP BY c." + DatabaseHandler.COLUMN_CATEGORY_ID
+				+ " ORDER BY c." + DatabaseHandler.COLUMN_CATEGORY_ID + " ASC";
+
+		return this.dbHandler.select(query, null);
+	}
+
+	/**
+	 * Create category summary from current row of summary cursor
+	 * 
+	 * @param cursor
+	 * @return
+	 */
+	public CategorySummary summaryFactory(Cursor cursor) {
+		return new CategorySummary(cursor.getLong(cursor
+				.getColumnIndex(DatabaseHandler.COLUMN_CATEGORY_ID)),
+				cursor.getString(cursor
+						.getColumnIndex(DatabaseHandler.COLUMN_CATEGORY_NAME)),
+				cursor.getInt(cursor.getColumnIndex(COLUMN_RECORD_COUNT)));
+	}
+
+	/**
+	 * Get categories with their records and gunShots by one joined query.
+	 * Rows are ordered by category, record and gunShot, so whole object graph
+	 * is built in one cursor pass.
+	 * 
+	 * @param where
+	 *            condition on category table aliased as c, null for all
+	 * @param selectionArgs
+	 * @return
+	 */
+	private ArrayList<Category> select(String where, String[] selectionArgs) {
+		ArrayList<Category> categories = new ArrayList<Category>();
+		Cursor cursor = this.selectJoined(where, selectionArgs);
+
+		int catIdIndex = cursor.getColumnIndex("cat_id");
+		int catNameIndex = cursor.getColumnIndex("cat_name");
+		int recIdIndex = cursor.getColumnIndex("rec_id");
+		int recDateIndex = cursor.getColumnIndex("rec_date");
+		int shotIdIndex = cursor.getColumnIndex("shot_id");
+		int shotTimeIndex = cursor.getColumnIndex("shot_time");
+
+		Category category = null;
+		Record record = null;
+
+		while (cursor.moveToNext()) {
+			long catId = cursor.getLong(catIdIndex);
+
+			// next category
+			if (category == null || category.getId() != catId) {
+				category = this.categoryFactory(catId,
+						cursor.getString(catNameIndex), new ArrayList<Record>());
+				categories.add(category);
+				record = null;
+			}
+
+			// category without records
+			if (cursor.isNull(recIdIndex)) {
+				continue;
+			}
+
+			// next record
+			long recId = cursor.getLong(recIdIndex);
+			if (record == null || record.getId() != recId) {
+				record = this.recordModel.recordFactory(recId,
+						new ArrayList<Gunshot>(),
+						new Date(cursor.getLong(recDateIndex)), catId);
+				category.records.add(record);
+			}
+
+			// record without gunShots
+			if (cursor.isNull(shotIdIndex)) {
+				continue;
+			}
+
+			record.gunshots.add(this.gunShotModel.gunShotFactory(
+					cursor.getLong(shotIdIndex), cursor.getFloat(shotTimeIndex),
+					recId));
+		}
 		cursor.close();
 
 		return categories;
 	}
 
+	/**
+	 * Cursor over categories joined with their records and gunShots, ordered
+	 * by category, record and gunShot
+	 * 
+	 * @param where
+	 *            condition on category table aliased as c, null for all
+	 * @param selectionArgs
+	 * @return
+	 */
+	private Cursor selectJoined(String where, String[] selectionArgs) {
+		String query = "SELECT c." + DatabaseHandler.COLUMN_CATEGORY_ID
+				+ " AS cat_id, c." + DatabaseHandler.COLUMN_CATEGORY_NAME
+				+ " AS cat_name, r." + DatabaseHandler.COLUMN_RECORD_ID
+				+ " AS rec_id, r." + DatabaseHandler.COLUMN_RECORD_DATE
+				+ " AS rec_date, g." + DatabaseHandler.COLUMN_GUNSHOT_ID
+				+ " AS shot_id, g." + DatabaseHandler.COLUMN_GUNSHOT_TIME
+				+ " AS shot_time"
+				+ " FROM " + DatabaseHandler.TB_CATEGORY_NAME + " c"
+				+ " LEFT JOIN " + DatabaseHandler.TB_RECORD_NAME + " r ON r."
+				+ DatabaseHandler.COLUMN_RECORD_CATEGORY_ID + " = c."
+				+ DatabaseHandler.COLUMN_CATEGORY_ID
+				+ " LEFT JOIN " + DatabaseHandler.TB_GUNSHOT_NAME + " g ON g."
+				+ DatabaseHandler.COLUMN_GUNSHOT_RECORD_ID + " = r."
+				+ DatabaseHandler.COLUMN_RECORD_ID
+				+ (where == null ? "" : " WHERE " + where)
+				+ " ORDER BY c." + DatabaseHandler.COLUMN_CATEGORY_ID + " ASC, r."
+				+ DatabaseHandler.COLUMN_RECORD_ID + " DESC, g."
+				+ DatabaseHandler.COLUMN_GUNSHOT_TIME + " ASC";
+
+		return this.dbHandler.select(query, selectionArgs);
+	}
+
 	/**
 	 * 
 	 * @param id
@@ -268,57 +372,136 @@ public class CategoryModel implements IModel<Category> {
 		return new Category(id, name, records);
 	}
 	
-	public void exportToXML(String filePath) throws IOException{
-		ArrayList<Category> categories = this.getAll();
-		
-		File newxmlfile = new File(filePath);
-		newxmlfile.createNewFile();
-		FileOutputStream fileos = null;
-		fileos = new FileOutputStream(newxmlfile);		
-		XmlSerializer serializer = Xml.newSerializer();
-		
-		serializer.setOutput(fileos, "UTF-8");
-        serializer.startDocument("UTF-8", true);        
-        
-        serializer.startTag(null, "categories");
-        
-        for(Category category : categories){
-        	serializer.startTag(null, "category");
-        	serializer.attribute(null, "id", String.valueOf(category.getId()) );
-        	
-        	serializer.startTag(null, "name");
-        	serializer.text(category.name);
-        	serializer.endTag(null, "name");
-        	
-        	serializer.startTag(null, "records");
-        	
-        	for(Record record : category.records){
-        		serializer.startTag(null, "record");
-        		serializer.attribute(null, "id", String.valueOf(record.getId()) );
-        		serializer.attribute(null, "date", (String)DateFormat.format("yyyy-MM-dd hh:mm:ss", record.dateRecorderd));
-        		
-        		serializer.startTag(null, "gunshots");        		
-        		for(Gunshot gunshot : record.gunshots){
-        			serializer.startTag(null, "gunshot");  
-        			serializer.attribute(null, "id", String.valueOf(gunshot.getId()) );
-        			serializer.attribute(null, "time", String.valueOf(gunshot.time) );
-        			serializer.endTag(null, "gunshot");
-        		}
-        		serializer.endTag(null, "gunshots");
-        		
-        		serializer.endTag(null, "record");
-        	}
-        	
-        	serializer.endTag(null, "records");
-        	
-        	serializer.endTag(null, "category");
-        }
-        
-        serializer.endTag(null, "categories");
-        
-        serializer.endDocument();
-        serializer.flush();
-        fileos.close();
-	}	
+	/**
+	 * Export all categories, records and gunShots into XML file
+	 * 
+	 * @param filePath
+	 * @throws IOException
+	 */
+	public void exportToXML(String filePath) throws IOException {
+		this.export(filePath, new XmlExportWriter(), null);
+	}
+
+	/**
+	 * Export all categories, records and gunShots into file in format of
+	 * writer. Rows are streamed from joined cursor straight into writer, so
+	 * whole DB is never held in memory. Partial file is deleted when export
+	 * is cancelled.
+	 * 
+	 * @param filePath
+	 * @param writer
+	 *            export format
+	 * @param progress
+	 *            observer of export, may be null
+	 * @return false if export was cancelled
+	 * @throws IOException
+	 */
+	public boolean export(String filePath, ExportWriter writer,
+			ExportProgress progress) throws IOException {
+		File exportFile = new File(filePath);
+		Cursor cursor = null;
+		BufferedOutputStream fileos = null;
+		boolean finished = false;
+
+		try {
+			cursor = this.selectJoined(null, null);
+			fileos = new BufferedOutputStream(new FileOutputStream(exportFile),
+					EXPORT_BUFFER_SIZE);
+
+			writer.start(fileos);
+
+			int catIdIndex = cursor.getColumnIndex("cat_id");
+			int catNameIndex = cursor.getColumnIndex("cat_name");
+			int recIdIndex = cursor.getColumnIndex("rec_id");
+			int recDateIndex = cursor.getColumnIndex("rec_date");
+			int shotIdIndex = cursor.getColumnIndex("shot_id");
+			int shotTimeIndex = cursor.getColumnIndex("shot_time");
+
+			int totalRows = cursor.getCount();
+			int progressStep = Math.max(1, totalRows / EXPORT_PROGRESS_STEPS);
+			long categoryId = -1;
+			long recordId = -1;
+
+			while (cursor.moveToNext()) {
+				if (progress != null) {
+					if (progress.isCancelled()) {
+						return false;
+					}
+
+					int position = cursor.getPosition();
+					if (position % progressStep == 0) {
+						progress.onProgress(position, totalRows);
+					}
+				}
+
+				long catId = cursor.getLong(catIdIndex);
+
+				// next category, close previous one
+				if (catId != categoryId) {
+					if (recordId != -1) {
+						writer.endRecord();
+					}
+					if (categoryId != -1) {
+						writer.endCategory();
+					}
+					categoryId = catId;
+					recordId = -1;
+
+					writer.startCategory(catId, cursor.getString(catNameIndex));
+				}
+
+				// category without records
+				if (cursor.isNull(recIdIndex)) {
+					continue;
+				}
+
+				// next record, close previous one
+				long recId = cursor.getLong(recIdIndex);
+				if (recId != recordId) {
+					if (recordId != -1) {
+						writer.endRecord();
+					}
+					recordId = recId;
+
+					writer.startRecord(recId,
+							new Date(cursor.getLong(recDateIndex)));
+				}
+
+				// record without gunShots
+				if (cursor.isNull(shotIdIndex)) {
+					continue;
+				}
+
+				writer.gunshot(cursor.getLong(shotIdIndex),
+						cursor.getFloat(shotTimeIndex));
+			}
+
+			if (recordId != -1) {
+				writer.endRecord();
+			}
+			if (categoryId != -1) {
+				writer.endCategory();
+			}
+
+			writer.finish();
+
+			if (progress != null) {
+				progress.onProgress(totalRows, totalRows);
+			}
+			finished = true;
+
+			return true;
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+			if (fileos != null) {
+				fileos.close();
+			}
+			if (!finished) {
+				exportFile.delete();
+			}
+		}
+	}
 
 }
@@ -0,0 +1,104 @@
+package tic0012.loselessoundrecord.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import android.text.format.DateFormat;
+
+/**
+ * CSV export for spreadsheets, one row per gunShot. Records without
+ * gunShots and categories without records have one row with empty columns.
+ * 
+ * @author tic0012, Michal Tich
+ */
+public class CsvExportWriter implements ExportWriter {
+
+	private static final String HEADER = "category_id,category_name,record_id,record_date,gunshot_id,gunshot_time";
+
+	private Writer writer;
+
+	/**
+	 * Columns of current category, already quoted
+	 */
+	private String categoryColumns;
+
+	/**
+	 * Columns of current record
+	 */
+	private String recordColumns;
+
+	private boolean categoryEmpty;
+
+	private boolean recordEmpty;
+
+	public String getExtension() {
+		return "csv";
+	}
+
+	public String getMimeType() {
+		return "text/csv";
+	}
+
+	public void start(OutputStream out) throws IOException {
+		this.writer = new OutputStreamWriter(out, "UTF-8");
+		this.writer.write(HEADER);
+		this.writer.write("\r\n");
+	}
+
+	public void startCategory(long id, String name) throws IOException {
+		this.categoryColumns = id + "," + quote(name);
+		this.categoryEmpty = true;
+	}
+
+	public void endCategory() throws IOException {
+		if (this.categoryEmpty) {
+			this.writeRow(",,,,");
+		}
+	}
+
+	public void startRecord(long id, Date dateRecorded) throws IOException {
+		this.recordColumns = id + ","
+				+ DateFormat.format("yyyy-MM-dd kk:mm:ss", dateRecorded);
+		this.recordEmpty = true;
+		this.categoryEmpty = false;
+	}
+
+	public void endRecord() throws IOException {
+		if (this.recordEmpty) {
+			this.writeRow(this.recordColumns + ",,");
+		}
+	}
+
+	public void gunshot(long id, float time) throws IOException {
+		this.writeRow(this.recordColumns + "," + id + "," + time);
+		this.recordEmpty = false;
+	}
+
+	public void finish() throws IOException {
+		this.writer.flush();
+	}
+
+	private void writeRow(String columns) throws IOException {
+		this.writer.write(this.categoryColumns);
+		this.writer.write(',');
+		this.writer.write(columns);
+		this.writer.write("\r\n");
+	}
+
+	/**
+	 * Quote text column if it contains separator, quote or new line
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static String quote(String value) {
+		if (value.indexOf(',') == -1 && value.indexOf('"') == -1
+				&& value.indexOf('\n') == -1 && value.indexOf('\r') == -1) {
+			return value;
+		}
+
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
@@ -5,9 +5,11 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 /**
- * Database layer, singleton
+ * Database layer, singleton. One connection is kept open for whole
+ * application lifetime.
  * 
  * @author tic0012, Michal Tich
  */
@@ -18,9 +20,25 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	 */
 	private static DatabaseHandler self;
 
+	/**
+	 * Long-lived database connection
+	 */
+	private SQLiteDatabase database;
+
 	protected static final String DB_NAME = "gunshots_db";
 
-	protected static final int DATABASE_VERSION = 1;
+	/**
+	 * Current schema version, each increase needs migration in migrate()
+	 */
+	protected static final int DATABASE_VERSION = 3;
+
+	/**
+	 * Schema version created by onCreate, newer versions are migrations
+	 */
+	private static final int BASE_VERSION = 1;
+
+	public static final String INDEX_RECORD_CATEGORY = "record_category_idx";
+	public static final String INDEX_GUNSHOT_RECORD = "gunshot_record_idx";
 
 	public static final String TB_GUNSHOT_NAME = "gunshot";
 	public static final String COLUMN_GUNSHOT_ID = "_id";
@@ -53,7 +71,8 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	 */
 	public static synchronized DatabaseHandler getInstance(Context context) {
 		if (self == null) {
-			self = new DatabaseHandler(context);
+			// handler lives with application, not with activity
+			self = new DatabaseHandler(context.getApplicationContext());
 		}
 		return self;
 	}
@@ -61,6 +80,18 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	// Creating Tables
 	@Override
 	public void onCreate(SQLiteDatabase db) {
+		this.createBaseSchema(db);
+
+		// new database gets all changes since base schema
+		this.migrate(db, BASE_VERSION, DATABASE_VERSION);
+	}
+
+	/**
+	 * Create tables of first schema version
+	 * 
+	 * @param db
+	 */
+	private void createBaseSchema(SQLiteDatabase db) {
 		// create Category table
 		String CREATE_CATEGORY_TABLE = "CREATE TABLE " + TB_CATEGORY_NAME + "("
 				+ COLUMN_CATEGORY_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -92,16 +123,159 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 		db.execSQL(INSERT_DEFAULT_CAT);
 	}
 
-	// Upgrading database
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+
+		// enforce foreign keys, deletes cascade from category to gunShots
+		if (!db.isReadOnly()) {
+			db.execSQL("PRAGMA foreign_keys = ON");
+		}
+
+		// writers do not block readers, available since Android 3.0
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+				&& !db.isReadOnly()) {
+			db.enableWriteAheadLogging();
+		}
+	}
+
+	/**
+	 * Get shared database connection, it is opened on first use and never
+	 * closed
+	 * 
+	 * @return
+	 */
+	public synchronized SQLiteDatabase getDatabase() {
+		if (this.database == null || !this.database.isOpen()) {
+			this.database = this.getWritableDatabase();
+		}
+
+		return this.database;
+	}
+
+	// Upgrading database, stored data are kept
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		// Drop older table if existed
-		db.execSQL("DROP TABLE IF EXISTS " + TB_GUNSHOT_NAME);
-		db.execSQL("DROP TABLE IF EXISTS " + TB_RECORD_NAME);
-		db.execSQL("DROP TABLE IF EXISTS " + TB_CATEGORY_NAME);
+		this.migrate(db, oldVersion, newVersion);
+	}
 
-		// Create tables again
-		this.onCreate(db);
+	/**
+	 * Apply schema changes step by step, runs in transaction of onCreate or
+	 * onUpgrade
+	 * 
+	 * @param db
+	 * @param fromVersion
+	 *            current schema version
+	 * @param toVersion
+	 *            required schema version
+	 */
+	private void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+		for (int version = fromVersion + 1; version <= toVersion; version++) {
+			switch (version) {
+			case 2:
+				this.migrateToVersion2(db);
+				break;
+
+			case 3:
+				this.migrateToVersion3(db);
+				break;
+
+			default:
+				throw new IllegalStateException("Missing migration to version "
+						+ version);
+			}
+		}
+	}
+
+	/**
+	 * Version 2: covering indexes
+	 * 
+	 * @param db
+	 */
+	private void migrateToVersion2(SQLiteDatabase db) {
+		this.createIndexes(db);
+	}
+
+	/**
+	 * Version 3: record and gunShot foreign keys delete on cascade. SQLite
+	 * cannot alter constraint, so tables are rebuilt with their data, rows
+	 * without parent are left out. Foreign keys are not enforced yet, they
+	 * are switched on in onOpen.
+	 * 
+	 * @param db
+	 */
+	private void migrateToVersion3(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE record_new (" + COLUMN_RECORD_ID
+				+ " INTEGER PRIMARY KEY AUTOINCREMENT, " + COLUMN_RECORD_DATE
+				+ " INTEGER NOT NULL, " + COLUMN_RECORD_CATEGORY_ID
+				+ " INTEGER NOT NULL, "
+				+ "CONSTRAINT record_in_category FOREIGN KEY ("
+				+ COLUMN_RECORD_CATEGORY_ID + ") REFERENCES " + TB_CATEGORY_NAME
+				+ " (" + COLUMN_CATEGORY_ID + ") ON DELETE CASCADE)");
+		db.execSQL("INSERT INTO record_new SELECT " + COLUMN_RECORD_ID + ", "
+				+ COLUMN_RECORD_DATE + ", " + COLUMN_RECORD_CATEGORY_ID
+				+ " FROM " + TB_RECORD_NAME + " WHERE "
+				+ COLUMN_RECORD_CATEGORY_ID + " IN (SELECT "
+				+ COLUMN_CATEGORY_ID + " FROM " + TB_CATEGORY_NAME + ")");
+
+		db.execSQL("CREATE TABLE gunshot_new (" + COLUMN_GUNSHOT_ID
+				+ " INTEGER PRIMARY KEY AUTOINCREMENT, " + COLUMN_GUNSHOT_TIME
+				+ " REAL NOT NULL, " + COLUMN_GUNSHOT_RECORD_ID
+				+ " INTEGER NOT NULL, "
+				+ "CONSTRAINT gunshot_in_record FOREIGN KEY ("
+				+ COLUMN_GUNSHOT_RECORD_ID + ") REFERENCES " + TB_RECORD_NAME
+				+ " (" + COLUMN_RECORD_ID + ") ON DELETE CASCADE)");
+		db.execSQL("INSERT INTO gunshot_new SELECT " + COLUMN_GUNSHOT_ID + ", "
+				+ COLUMN_GUNSHOT_TIME + ", " + COLUMN_GUNSHOT_RECORD_ID
+				+ " FROM " + TB_GUNSHOT_NAME + " WHERE "
+				+ COLUMN_GUNSHOT_RECORD_ID + " IN (SELECT " + COLUMN_RECORD_ID
+				+ " FROM record_new)");
+
+		// keep AUTOINCREMENT counters, IDs of deleted rows are not reused
+		this.copySequence(db, TB_RECORD_NAME, "record_new");
+		this.copySequence(db, TB_GUNSHOT_NAME, "gunshot_new");
+
+		db.execSQL("DROP TABLE " + TB_GUNSHOT_NAME);
+		db.execSQL("DROP TABLE " + TB_RECORD_NAME);
+		db.execSQL("ALTER TABLE record_new RENAME TO " + TB_RECORD_NAME);
+		db.execSQL("ALTER TABLE gunshot_new RENAME TO " + TB_GUNSHOT_NAME);
+
+		// indexes were dropped with old tables
+		this.createIndexes(db);
+	}
+
+	/**
+	 * Set AUTOINCREMENT counter of rebuilt table to counter of old table.
+	 * Rebuilt table holds only copied IDs, so old counter is the highest.
+	 * Counter row is created, when no row was copied. sqlite_sequence has no
+	 * unique name, so the row is replaced by delete and insert.
+	 * 
+	 * @param db
+	 * @param oldTable
+	 * @param newTable
+	 */
+	private void copySequence(SQLiteDatabase db, String oldTable,
+			String newTable) {
+		db.execSQL("DELETE FROM sqlite_sequence WHERE name = ?",
+				new Object[] { newTable });
+		db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT ?, seq "
+				+ "FROM sqlite_sequence WHERE name = ?", new Object[] {
+				newTable, oldTable });
+	}
+
+	/**
+	 * Covering indexes for records in category (newest first) and gunShots
+	 * in record (ordered by time)
+	 * 
+	 * @param db
+	 */
+	private void createIndexes(SQLiteDatabase db) {
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_RECORD_CATEGORY
+				+ " ON " + TB_RECORD_NAME + "(" + COLUMN_RECORD_CATEGORY_ID
+				+ ", " + COLUMN_RECORD_ID + ", " + COLUMN_RECORD_DATE + ")");
+		db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_GUNSHOT_RECORD
+				+ " ON " + TB_GUNSHOT_NAME + "(" + COLUMN_GUNSHOT_RECORD_ID
+				+ ", " + COLUMN_GUNSHOT_TIME + ")");
 	}
 
 	/**
@@ -112,14 +286,10 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	 * @return
 	 */
 	public long insertRow(ContentValues values, String tableName) {
-		SQLiteDatabase db = this.getWritableDatabase();
-		long result;
+		SQLiteDatabase db = this.getDatabase();
 
 		// Inserting Row
-		result = db.insert(tableName, null, values);
-		db.close(); // Closing database connection
-
-		return result;
+		return db.insert(tableName, null, values);
 	}
 
 	/**
@@ -130,8 +300,7 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	 * @return
 	 */
 	public Cursor select(String query, String[] selectionArgs) {
-		// SQLiteDatabase db = this.getWritableDatabase();
-		SQLiteDatabase db = this.getReadableDatabase();
+		SQLiteDatabase db = this.getDatabase();
 
 		if (selectionArgs == null) {
 			return db.rawQuery(query, null);
@@ -149,7 +318,7 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	 * @return
 	 */
 	public int update(String tableName, ContentValues values, long id) {
-		SQLiteDatabase db = this.getWritableDatabase();
+		SQLiteDatabase db = this.getDatabase();
 		String whereClause = "_id = ?";
 		String[] whereArgs = { String.valueOf(id) };
 
@@ -165,13 +334,10 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 	 * @return
 	 */
 	public int delete(String tableName, String whereClause, String[] whereArgs) {
-		SQLiteDatabase db = this.getWritableDatabase();
+		SQLiteDatabase db = this.getDatabase();
 		// String whereClause = "_id = ?";
 		// String[] whereArgs = { String.valueOf(id) };
 
-		int result = db.delete(tableName, whereClause, whereArgs);
-		db.close();
-
-		return result;
+		return db.delete(tableName, whereClause, whereArgs);
 	}
 }
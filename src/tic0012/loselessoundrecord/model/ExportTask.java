@@ -0,0 +1,104 @@
+package tic0012.loselessoundrecord.model;
+
+import java.io.IOException;
+import tic0012.loselessoundrecord.StoredActivity;
+import android.app.ProgressDialog;
+import android.os.AsyncTask;
+
+/**
+ * Asynchronous export of all categories in format of export writer, shows
+ * progress in dialog and can be cancelled by it
+ * 
+ * @author tic0012, Michal Tich
+ */
+public class ExportTask extends AsyncTask<Void, Integer, Boolean> implements
+		CategoryModel.ExportProgress {
+
+	/**
+	 * Parent Activity
+	 */
+	private StoredActivity storedActivity;
+
+	/**
+	 * Category model doing export
+	 */
+	private CategoryModel categoryModel;
+
+	/**
+	 * Export format
+	 */
+	private ExportWriter writer;
+
+	/**
+	 * Absolute path to export file
+	 */
+	private String filePath;
+
+	/**
+	 * Dialog to show export progress
+	 */
+	private ProgressDialog progressDialog;
+
+	public ExportTask(CategoryModel categoryModel, ExportWriter writer,
+			String filePath, ProgressDialog progressDialog,
+			StoredActivity activity) {
+		this.categoryModel = categoryModel;
+		this.writer = writer;
+		this.filePath = filePath;
+		this.progressDialog = progressDialog;
+		this.storedActivity = activity;
+	}
+
+	@Override
+	/**
+	 * Asynchronous export
+	 */
+	protected Boolean doInBackground(Void... params) {
+		try {
+			return this.categoryModel.export(this.filePath, this.writer, this);
+		} catch (IOException e) {
+			e.printStackTrace();
+
+			return false;
+		}
+	}
+
+	public void onProgress(int exportedRows, int totalRows) {
+		this.publishProgress(exportedRows, totalRows);
+	}
+
+	@Override
+	protected void onPreExecute() {
+		super.onPreExecute();
+
+		this.progressDialog.setProgress(0);
+		this.progressDialog.show();
+	}
+
+	@Override
+	protected void onProgressUpdate(Integer... progress) {
+		super.onProgressUpdate(progress);
+
+		this.progressDialog.setMax(progress[1]);
+		this.progressDialog.setProgress(progress[0]);
+	}
+
+	@Override
+	/**
+	 * Export done, share file
+	 */
+	protected void onPostExecute(Boolean result) {
+		super.onPostExecute(result);
+
+		this.progressDialog.dismiss();
+		this.storedActivity.exportFinished(this.filePath,
+				this.writer.getMimeType(), result);
+	}
+
+	@Override
+	protected void onCancelled() {
+		super.onCancelled();
+
+		this.progressDialog.dismiss();
+	}
+}
@@ -0,0 +1,54 @@
+package tic0012.loselessoundrecord.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+/**
+ * Streaming writer of one export format. Categories, records and gunShots
+ * are passed in order of joined cursor, each record belongs to last started
+ * category and each gunShot to last started record.
+ * 
+ * @author tic0012, Michal Tich
+ */
+public interface ExportWriter {
+
+	/**
+	 * File extension without dot
+	 * 
+	 * @return
+	 */
+	public String getExtension();
+
+	/**
+	 * MIME type used for sharing exported file
+	 * 
+	 * @return
+	 */
+	public String getMimeType();
+
+	/**
+	 * Start export into buffered stream
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void start(OutputStream out) throws IOException;
+
+	public void startCategory(long id, String name) throws IOException;
+
+	public void endCategory() throws IOException;
+
+	public void startRecord(long id, Date dateRecorded) throws IOException;
+
+	public void endRecord() throws IOException;
+
+	public void gunshot(long id, float time) throws IOException;
+
+	/**
+	 * Finish export and flush all data, stream is closed by caller
+	 * 
+	 * @throws IOException
+	 */
+	public void finish() throws IOException;
+}
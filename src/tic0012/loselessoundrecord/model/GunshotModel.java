@@ -1,9 +1,13 @@
 package tic0012.loselessoundrecord.model;
 
+import java.util.ArrayList;
+import java.util.List;
 import tic0012.loselessoundrecord.classes.Gunshot;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 /**
  * GunShot repository model, singleton
@@ -64,6 +68,45 @@ public class GunshotModel implements IModel<Gunshot> {
 		return this.gunShotFactory(result, gunShot.time, gunShot.getRecordId());
 	}
 
+	/**
+	 * Save all gunShots of record using one compiled statement. Caller is
+	 * responsible for transaction.
+	 * 
+	 * @param db
+	 *            writable database in transaction
+	 * @param gunShots
+	 * @param recordId
+	 *            Record set ID of all gunShots
+	 * @return saved gunShots with IDs
+	 * @throws DBException
+	 */
+	public ArrayList<Gunshot> addAll(SQLiteDatabase db, List<Gunshot> gunShots,
+			long recordId) throws DBException {
+		ArrayList<Gunshot> result = new ArrayList<Gunshot>(gunShots.size());
+		SQLiteStatement insert = db.compileStatement("INSERT INTO "
+				+ DatabaseHandler.TB_GUNSHOT_NAME + " ("
+				+ DatabaseHandler.COLUMN_GUNSHOT_TIME + ", "
+				+ DatabaseHandler.COLUMN_GUNSHOT_RECORD_ID + ") VALUES (?, ?)");
+
+		try {
+			for (Gunshot gunShot : gunShots) {
+				insert.bindDouble(1, gunShot.time);
+				insert.bindLong(2, recordId);
+
+				long id = insert.executeInsert();
+				if (id < 0) {
+					throw new DBException("Insert new gunshot failure");
+				}
+
+				result.add(this.gunShotFactory(id, gunShot.time, recordId));
+			}
+		} finally {
+			insert.close();
+		}
+
+		return result;
+	}
+
 	/**
 	 * Delete GunShot from DB
 	 */
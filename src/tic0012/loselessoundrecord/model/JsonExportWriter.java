@@ -0,0 +1,135 @@
+package tic0012.loselessoundrecord.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import android.text.format.DateFormat;
+
+/**
+ * JSON lines export, one JSON object per category on each line with its
+ * records and gunShot times nested
+ * 
+ * @author tic0012, Michal Tich
+ */
+public class JsonExportWriter implements ExportWriter {
+
+	private Writer writer;
+
+	/**
+	 * Any record already written in current category
+	 */
+	private boolean firstRecord;
+
+	/**
+	 * Any gunShot already written in current record
+	 */
+	private boolean firstGunshot;
+
+	public String getExtension() {
+		return "jsonl";
+	}
+
+	public String getMimeType() {
+		return "application/json";
+	}
+
+	public void start(OutputStream out) throws IOException {
+		this.writer = new OutputStreamWriter(out, "UTF-8");
+	}
+
+	public void startCategory(long id, String name) throws IOException {
+		this.writer.write("{\"id\":");
+		this.writer.write(String.valueOf(id));
+		this.writer.write(",\"name\":");
+		writeString(this.writer, name);
+		this.writer.write(",\"records\":[");
+		this.firstRecord = true;
+	}
+
+	public void endCategory() throws IOException {
+		this.writer.write("]}\n");
+	}
+
+	public void startRecord(long id, Date dateRecorded) throws IOException {
+		if (!this.firstRecord) {
+			this.writer.write(',');
+		}
+		this.firstRecord = false;
+
+		this.writer.write("{\"id\":");
+		this.writer.write(String.valueOf(id));
+		this.writer.write(",\"date\":\"");
+		this.writer.write(DateFormat.format("yyyy-MM-dd kk:mm:ss",
+				dateRecorded).toString());
+		this.writer.write("\",\"gunshots\":[");
+		this.firstGunshot = true;
+	}
+
+	public void endRecord() throws IOException {
+		this.writer.write("]}");
+	}
+
+	public void gunshot(long id, float time) throws IOException {
+		if (!this.firstGunshot) {
+			this.writer.write(',');
+		}
+		this.firstGunshot = false;
+
+		this.writer.write("{\"id\":");
+		this.writer.write(String.valueOf(id));
+		this.writer.write(",\"time\":");
+		this.writer.write(String.valueOf(time));
+		this.writer.write('}');
+	}
+
+	public void finish() throws IOException {
+		this.writer.flush();
+	}
+
+	/**
+	 * Write escaped JSON string
+	 * 
+	 * @param writer
+	 * @param value
+	 * @throws IOException
+	 */
+	private static void writeString(Writer writer, String value)
+			throws IOException {
+		writer.write('"');
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+			case '"':
+				writer.write("\\\"");
+				break;
+			case '\\':
+				writer.write("\\\\");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					String hex = Integer.toHexString(c);
+					writer.write("\\u");
+					writer.write("0000", 0, 4 - hex.length());
+					writer.write(hex);
+				} else {
+					writer.write(c);
+				}
+			}
+		}
+
+		writer.write('"');
+	}
+}
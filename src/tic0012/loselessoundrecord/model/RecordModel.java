@@ -8,6 +8,7 @@ import tic0012.loselessoundrecord.classes.Record;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.text.format.DateFormat;
 
 /**
@@ -54,31 +55,35 @@ public class RecordModel implements IModel<Record> {
 	}
 
 	/**
-	 * Save new Record into DB
+	 * Save new Record with all its gunShots into DB in one transaction
 	 */
 	public Record add(Record record) throws DBException {
 		long result;
-		ArrayList<Gunshot> gunshots = new ArrayList<Gunshot>();
+		ArrayList<Gunshot> gunshots;
 		ContentValues values = new ContentValues();
 		values.put(DatabaseHandler.COLUMN_RECORD_DATE,
 				record.dateRecorderd.getTime());
 		values.put(DatabaseHandler.COLUMN_RECORD_CATEGORY_ID,
 				record.getCategoryId());
 
-		result = this.dbHandler.insertRow(values,
-				DatabaseHandler.TB_RECORD_NAME);
+		SQLiteDatabase db = this.dbHandler.getDatabase();
+		db.beginTransaction();
+		try {
+			result = db.insert(DatabaseHandler.TB_RECORD_NAME, null, values);
 
-		if (result < 0) {
-			throw new DBException("Insert new Record set failure");
-		}
+			if (result < 0) {
+				throw new DBException("Insert new Record set failure");
+			}
 
-		// setup gunShots
-		for (Gunshot shot : record.gunshots) {
-			Gunshot gunShot;
-			shot.recordId = result;
+			// setup gunShots
+			for (Gunshot shot : record.gunshots) {
+				shot.recordId = result;
+			}
+			gunshots = this.gunShotModel.addAll(db, record.gunshots, result);
 
-			gunShot = this.gunShotModel.add(shot);
-			gunshots.add(gunShot);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
 		}
 
 		return this.recordFactory(result, gunshots, record.dateRecorderd,
@@ -89,23 +94,26 @@ public class RecordModel implements IModel<Record> {
 	 * Delete Record set from DB
 	 */
 	public boolean remove(Record record) {
+		return this.remove(record.getId());
+	}
+
+	/**
+	 * Delete Record set from DB by its id, record is not loaded
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public boolean remove(long id) {
 		String whereClause = "_id = ?";
-		String[] whereArgs = { String.valueOf(record.getId()) };
+		String[] whereArgs = { String.valueOf(id) };
 		int result;
 
-		// delete record set
+		// delete record set, gunShots in it are deleted on cascade
 		result = this.dbHandler.delete(DatabaseHandler.TB_RECORD_NAME,
 				whereClause, whereArgs);
 
-		// delete gunShots in it
 		if (result > 0) {
-			whereClause = DatabaseHandler.COLUMN_GUNSHOT_RECORD_ID + " = ?";
-			result = this.dbHandler.delete(DatabaseHandler.TB_GUNSHOT_NAME,
-					whereClause, whereArgs);
-
-			if (result > 0) {
-				return true;
-			}
+			return true;
 		}
 
 		return false;
@@ -173,6 +181,24 @@ public class RecordModel implements IModel<Record> {
 		return null;
 	}
 
+	/**
+	 * Cursor over records in category without gunShots, newest first,
+	 * columns are _id and dateRecorded
+	 * 
+	 * @param categoryId
+	 * @return
+	 */
+	public Cursor getCategoryRecords(long categoryId) {
+		String query = "SELECT " + DatabaseHandler.COLUMN_RECORD_ID + ", "
+				+ DatabaseHandler.COLUMN_RECORD_DATE + " FROM "
+				+ DatabaseHandler.TB_RECORD_NAME + " WHERE "
+				+ DatabaseHandler.COLUMN_RECORD_CATEGORY_ID + " = ? ORDER BY "
+				+ DatabaseHandler.COLUMN_RECORD_ID + " DESC";
+		String[] selectionArgs = { String.valueOf(categoryId) };
+
+		return this.dbHandler.select(query, selectionArgs);
+	}
+
 	/**
 	 * Record set factory
 	 * 
@@ -1,15 +1,18 @@
 package tic0012.loselessoundrecord.model;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
-import tic0012.loselessoundrecord.R;
 import tic0012.loselessoundrecord.ReadActivity;
+import tic0012.loselessoundrecord.classes.CaptureFormat;
+import tic0012.loselessoundrecord.classes.GunshotDetector;
+import tic0012.loselessoundrecord.classes.FlacFile;
+import tic0012.loselessoundrecord.classes.SampleSource;
+import tic0012.loselessoundrecord.classes.SessionTimeline;
+import tic0012.loselessoundrecord.classes.WavFile;
+import tic0012.loselessoundrecord.classes.WaveformPyramid;
 import android.os.AsyncTask;
 import android.os.Environment;
 import android.util.Log;
@@ -22,7 +25,7 @@ import android.widget.ProgressBar;
  * 
  * @author tic0012, Michal Tich
  */
-public class RecordReadTask extends AsyncTask<Void, Integer, ArrayList<Short>> {
+public class RecordReadTask extends AsyncTask<Void, Integer, WaveformPyramid> {
 
 	/**
 	 * Parent Activity
@@ -35,26 +38,29 @@ public class RecordReadTask extends AsyncTask<Void, Integer, ArrayList<Short>> {
 	private String filePath;
 
 	/**
-	 * Number of bytes to skip WAV header = 44 bytes
+	 * Progress bar to show reading progress
 	 */
-	private final long SKIP_BYTES = 44;
+	private ProgressBar progressBar;
 
 	/**
-	 * Progress bar to show reading progress
+	 * Memory mapped WAV or FLAC source file for reading
 	 */
-	private ProgressBar progressBar;
+	private SampleSource source = null;
 
 	/**
-	 * WAV source file for reading
+	 * Size of one reading block in samples
 	 */
-	private File srcFile = null;
-	private FileInputStream inputStream = null;
-	private BufferedInputStream buffInStream = null;
+	private final int READ_BLOCK_SIZE = 32 * 1024;
 
 	/**
-	 * Contains all RAW amplitudes from WAF file
+	 * Number of progress updates published during whole file reading
 	 */
-	private ArrayList<Short> amplitudeList = null;
+	private final int PROGRESS_STEPS = 100;
+
+	/**
+	 * Waveform peaks of whole WAV file
+	 */
+	private WaveformPyramid pyramid = null;
 
 	/**
 	 * Lists of times when was fired
@@ -67,53 +73,41 @@ public class RecordReadTask extends AsyncTask<Void, Integer, ArrayList<Short>> {
 	private ArrayList<Integer> sampleShots = null;
 
 	/**
-	 * Sample rate in Hz
+	 * Sensitivity index of detector
 	 */
-	private int sampleRate;
+	private int sensitivity;
 
 	/**
-	 * Amplitudes count value, which is GunShot
+	 * Sample rate of file in Hz
 	 */
-	private int gunshotSensitivity;		
-	
+	private int sampleRate;
+
 	/**
-	 * Time space between gunShots in seconds
+	 * Sample rate of samples after compression in Hz
 	 */
-	private final float GUNSHOT_SPACE = 0.15f;
-	
+	private int analysisRate;
+
 	/**
-	 * Minimum space between gunshot in samples
+	 * Mapping of file frames to session time, times are measured from
+	 * recording start
 	 */
-	private int gunshotSpaceSamples;
-	
+	private SessionTimeline timeline;
+
 	/**
-	 * Time samples, where search for gunSot
+	 * Distance between analysed samples of first channel
 	 */
-	//private final float SEARCHING_PART = 0.05f;
-	private final float SEARCHING_PART = 0.04f;
-	
+	private int step = 1;
+
 	/**
-	 * Number of samples, where to search for gunShot
+	 * Streaming gunShot detector
 	 */
-	private int searchingPartSamples;
-	
+	private GunshotDetector detector;
+
 	/**
-	 * Samples count representing gunshot for each sensitivity
+	 * If false, gunShots are already known and file is read only for
+	 * amplitudes
 	 */
-	//private final int[] SHOT_VALUES = {0, 1, 2, 3, 4, 8800000, 6, 7, 8, 9, 10};
-	private final int[] SHOT_VALUES = {
-			10000000, 
-			9400000, 
-			8800000, 
-			8200000, 
-			7600000, 
-			7100000, // default value
-			6200000, 
-			5300000, 
-			4400000, 
-			3500000, 
-			2600000
-			};	
+	private boolean searchGunshots = true;
 
 	/**
 	 * Set true for debugging output
@@ -126,65 +120,34 @@ public class RecordReadTask extends AsyncTask<Void, Integer, ArrayList<Short>> {
 	private boolean compression;
 
 	/**
-	 * Number which sample read, for example = 4, read each fourth sample
+	 * Number which sample read at CaptureFormat.BASE_SAMPLE_RATE, for
+	 * example = 4, read each fourth sample
 	 */
 	private int compressionRatio;
 
 	/**
-	 * Maximum number of amplitudes need to be stored
+	 * Sample rate and analysis rate are taken from file, when it is opened
 	 */
-	private int maxAmplitudes;
-
-	public RecordReadTask(int sampleRate, ProgressBar progrBar, String fileP,
+	public RecordReadTask(ProgressBar progrBar, String fileP,
 			ReadActivity activity, boolean compression, int compressionRatio, int sensitivity) {
 		this.filePath = fileP;
 		this.progressBar = progrBar;
 		this.readActivity = activity;
-		this.sampleRate = sampleRate;
 		this.compression = compression;
 		this.compressionRatio = compressionRatio;
-		this.gunshotSensitivity = this.SHOT_VALUES[sensitivity];
-		
-		if(this.compression){
-			// set searching part in samples
-			this.searchingPartSamples = (int)((this.sampleRate / this.compressionRatio ) * this.SEARCHING_PART);
-			// set minimal space between gunShots
-			this.gunshotSpaceSamples = (int)((this.sampleRate / this.compressionRatio ) * this.GUNSHOT_SPACE);
-		}		
-		else{
-			// set searching part in samples
-			this.searchingPartSamples = (int)(this.sampleRate * this.SEARCHING_PART);
-			// set minimal space between gunShots			
-			this.gunshotSpaceSamples = (int)(this.sampleRate * this.GUNSHOT_SPACE);
-		}
-		
-		Log.d("Searching blog size: ", "" + this.searchingPartSamples);
-
-		int maxSeconds = this.readActivity.getResources().getInteger(
-				R.integer.max_bitmap_seconds);
-		if (this.compression) {
-			this.maxAmplitudes = (this.sampleRate / this.compressionRatio)
-					* maxSeconds;
-		} else {
-			this.maxAmplitudes = this.sampleRate * maxSeconds;
-		}
-		
+		this.sensitivity = sensitivity;
 	}
 
 	@Override
 	/**
 	 * Asynchronous reading
 	 */
-	protected ArrayList<Short> doInBackground(Void... arg0) {
+	protected WaveformPyramid doInBackground(Void... arg0) {
 		// ArrayList<Short> points = new ArrayList<Short>(); // whole amplitudes
 
 		OutputStreamWriter outStreamWriter = null;
 		FileOutputStream fileOutpuStream = null;
-		int readedBytes = 0; // bytes reading counter
-		int readedSamples = 0;
-		int readedForSearch = 0;
-		short[] amplBuffer = new short[this.searchingPartSamples];
-		float shotTime;
+		long readedSamples = 0; // samples reading counter
 		
 		long start = System.currentTimeMillis();
 
@@ -198,104 +161,92 @@ public class RecordReadTask extends AsyncTask<Void, Integer, ArrayList<Short>> {
 				fileOutpuStream = new FileOutputStream(ouputFile);
 				outStreamWriter = new OutputStreamWriter(fileOutpuStream);
 			}
-			
 
-			byte[] myBuff = new byte[2];
-			short ampl;
+			short[] block = new short[READ_BLOCK_SIZE];
+			short[] searchBlock = new short[READ_BLOCK_SIZE];
+			int blockSize;
+			int searchBlockSize;
+
+			// publish progress only each 1% of file
+			long progressStep = Math.max(1, this.source.getSampleCount() / PROGRESS_STEPS);
+			long nextProgress = progressStep;
+
+			// only first channel is analysed
+			int channels = this.source.getChannels();
+			long frameCount = this.source.getSampleCount() / channels;
+
+			// gunShots are known, stored peaks are enough
+			File peaksFile = WaveformPyramid.getPeaksFile(this.filePath);
+			if (!this.searchGunshots) {
+				this.pyramid = WaveformPyramid.load(peaksFile, frameCount);
+
+				if (this.pyramid != null) {
+					Log.d("sound proccessing", "Stored peaks loaded");
+					return this.pyramid;
+				}
+			}
+
+			this.pyramid = new WaveformPyramid(this.source.getSampleRate(),
+					frameCount);
 
 			// start reading
 			Log.d("sound proccessing", "Getting amplitude");
-			buffInStream.skip(SKIP_BYTES); // skip WAV header
 
-			int readedForCompression = 0;
-			int toSkip = this.compressionRatio - 1;
+			int step = this.step;
+			int skipBeforeNext = step - 1;
 
-			// read WAF file by 2 bytes
-			while (buffInStream.read(myBuff, 0, 2) > 1) {
+			// read WAF file by blocks straight from mapped data
+			while ((blockSize = this.source.read(readedSamples, block, 0, block.length)) != -1) {
 				if (isCancelled()) { // check if user canceled work
 					break;
 				}
 
-				// skip byte for compression
-				if (readedForCompression < toSkip && this.compression) {
-					readedForCompression++;
-					readedBytes += 2;
-					continue;
-				}
-
-				readedBytes += 2;
-				readedForCompression = 0;
+				readedSamples += blockSize;
 
-				// get number representation of amplitude
-				ampl = ((short) ((myBuff[0] & 0xff) | (myBuff[1] << 8)));
-				// points.add(ampl);
-
-				if (readedSamples < this.maxAmplitudes) {
-					this.amplitudeList.add(ampl);
+				if (channels > 1) {
+					blockSize /= channels;
+					for (int j = 0; j < blockSize; j++) {
+						block[j] = block[j * channels];
+					}
 				}
+				this.pyramid.add(block, 0, blockSize);
 
-				// search for gunShot
-				if (readedForSearch == this.searchingPartSamples) {
-					boolean enoughSpace = true;
-					int amplitudeIndex = readedSamples - this.searchingPartSamples;
-					int samplesSize = this.sampleShots.size();
-					// check space between gunShots	
-					if(samplesSize > 0){
-						if((this.sampleShots.get(samplesSize - 1) + this.gunshotSpaceSamples) > amplitudeIndex){
-							enoughSpace = false;
-						}
-					}
-					
-					if(enoughSpace){ // enough time space between gunShots, potencialy new gunShot
-						if (this.isShot(amplBuffer)) {
-							//float shotTime = (float) readedSamples / (float) this.sampleRate;																						
-							
-							if(this.compression){									
-								shotTime = (float)amplitudeIndex / ((float)this.sampleRate / (float)this.compressionRatio);							
-							}		
-							else{
-								shotTime = (float)amplitudeIndex / (float)this.sampleRate;
-							}												
-							this.gunshots.add(shotTime);
-							this.sampleShots.add(amplitudeIndex);
-							Log.i("Found shot", "sample time " + shotTime
-									+ "s, index: " + amplitudeIndex);
-						}						
-					}
-					
-					// clear buffer
-					for(int i = 0; i < amplBuffer.length; i++){
-						amplBuffer[i] = 0;
-					}
-					readedForSearch = 0;
-				} else {					
-					// get only positive amplitudes
-					if(ampl > 0){
-						amplBuffer[readedForSearch] = ampl;
-						readedForSearch++;
-					}					
+				// skip samples for compression
+				searchBlockSize = 0;
+				int i;
+				for (i = skipBeforeNext; i < blockSize; i += step) {
+					searchBlock[searchBlockSize++] = block[i];
 				}
+				skipBeforeNext = i - blockSize;
 
-				// write amplitude into debug file
+				this.searchBlock(searchBlock, searchBlockSize);
+
+				// write amplitudes into debug file
 				if (this.DEBUG) {
-					outStreamWriter.append(Short.toString(ampl) + "\n");
+					for (i = 0; i < searchBlockSize; i++) {
+						outStreamWriter.append(Short.toString(searchBlock[i]) + "\n");
+					}
 				}
 
-				publishProgress(readedBytes);
-				readedSamples++;
+				if (readedSamples >= nextProgress) {
+					publishProgress((int) readedSamples);
+					nextProgress = readedSamples + progressStep;
+				}
 			}
 
 			Log.d("sound proccessing", "Whole amplitude getted");
 
+			if (!isCancelled()) {
+				this.pyramid.finish();
+				this.pyramid.save(peaksFile);
+			}
+
 		} catch (Exception e) {
 			System.err.println(e);
 		} finally {
 			try {
-				if (inputStream != null) {
-					inputStream.close();
-				}
-				if (buffInStream != null) {
-					buffInStream.close();
+				if (this.source != null) {
+					this.source.close();
 				}
 				if (outStreamWriter != null) {
 					outStreamWriter.close();
@@ -311,10 +262,79 @@ public class RecordReadTask extends AsyncTask<Void, Integer, ArrayList<Short>> {
 		long end = System.currentTimeMillis();
 		Log.i("execution time", ((end-start) / 1000) + " s");
 		
-		// return points;
-		return this.amplitudeList;
+		return this.pyramid;
 	}
 
+	/**
+	 * Open record file by its extension
+	 * 
+	 * @param filePath
+	 * @return
+	 * @throws IOException
+	 */
+	public static SampleSource openSource(String filePath) throws IOException {
+		if (filePath.toLowerCase().endsWith(".flac")) {
+			return new FlacFile(filePath);
+		}
+
+		return new WavFile(filePath);
+	}
+
+	/**
+	 * Search one block for gunShots
+	 * 
+	 * @param block
+	 *            samples after compression
+	 * @param blockSize
+	 *            number of valid samples in block
+	 */
+	private void searchBlock(short[] block, int blockSize) {
+		if (this.searchGunshots) {
+			this.detector.process(block, 0, blockSize);
+		}
+	}
+
+	/**
+	 * Use gunShots found while recording, file will not be searched again
+	 * 
+	 * @param shotsTime
+	 *            times of gunShots in seconds
+	 * @param samples
+	 *            gunShots indexes in samples after compression
+	 */
+	public void setGunshots(ArrayList<Float> shotsTime, ArrayList<Integer> samples) {
+		this.gunshots = shotsTime;
+		this.sampleShots = samples;
+		this.searchGunshots = false;
+	}
+
+	/**
+	 * Time of gunShot in session from recording start. Event gated record
+	 * keeps only segments of session, position in file is mapped by its
+	 * segment index. GunShots in pre-roll have negative time.
+	 * 
+	 * @param sampleIndex
+	 *            gunShot index in samples after compression
+	 * @return time in seconds
+	 */
+	private float getShotTime(int sampleIndex) {
+		return this.timeline.toSessionTime((long) sampleIndex * this.step);
+	}
+
+	/**
+	 * Collect gunShots found by detector
+	 */
+	private GunshotDetector.OnShotListener shotListener = new GunshotDetector.OnShotListener() {
+		public void onShot(int sampleIndex) {
+			float shotTime = getShotTime(sampleIndex);
+
+			gunshots.add(shotTime);
+			sampleShots.add(sampleIndex);
+			Log.i("Found shot", "sample time " + shotTime + "s, index: "
+					+ sampleIndex);
+		}
+	};
+
 	@Override
 	/**
 	 * Prepare for reading
@@ -322,31 +342,37 @@ public class RecordReadTask extends AsyncTask<Void, Integer, ArrayList<Short>> {
 	protected void onPreExecute() {
 		super.onPreExecute();
 
-		long filesize;
-
-		srcFile = new File(filePath);
 		try {
-			// open file
-			inputStream = new FileInputStream(srcFile);
-		} catch (FileNotFoundException e) {
+			// open and map file
+			this.source = openSource(this.filePath);
+
+			// analysis rate is scaled to rate of file
+			this.sampleRate = this.source.getSampleRate();
+			int ratio = 1;
+			if (this.compression) {
+				ratio = CaptureFormat.scaleCompressionRatio(
+						this.compressionRatio, this.sampleRate);
+			}
+			this.step = ratio;
+			this.analysisRate = this.sampleRate / ratio;
+			this.timeline = this.source.getTimeline();
+			this.detector = new GunshotDetector(this.analysisRate,
+					this.sensitivity, this.compression, this.shotListener);
+
+			// set maximum value to progress Bar
+			progressBar.setMax((int) this.source.getSampleCount());
+		} catch (IOException e) {
 			e.printStackTrace();
 
 			this.cancel(true);
 		}
 
-		// prepare file to read
-		buffInStream = new BufferedInputStream(inputStream);
-		filesize = srcFile.length();
-
-		filesize -= SKIP_BYTES;
-
-		// set maximum value to progress Bar
-		progressBar.setMax((int) filesize);
 		progressBar.setVisibility(View.VISIBLE);
 
-		this.amplitudeList = new ArrayList<Short>();
-		this.gunshots = new ArrayList<Float>();
-		this.sampleShots = new ArrayList<Integer>();
+		if (this.searchGunshots) {
+			this.gunshots = new ArrayList<Float>();
+			this.sampleShots = new ArrayList<Integer>();
+		}
 	}
 
 	@Override
@@ -360,45 +386,22 @@ public class RecordReadTask extends AsyncTask<Void, Integer, ArrayList<Short>> {
 	/**
 	 * Reading done, print image with amplitude
 	 */
-	protected void onPostExecute(ArrayList<Short> points) {
-		super.onPostExecute(points);
+	protected void onPostExecute(WaveformPyramid peaks) {
+		super.onPostExecute(peaks);
 
-		// handlePoints(points);
-		this.readActivity.setResults(this.amplitudeList, this.gunshots,
-				this.sampleShots);
+		this.readActivity.setResults(peaks, this.gunshots, this.sampleShots,
+				this.timeline);
 	}
 
 	/**
 	 * 
 	 * @return
 	 */
-	public ArrayList<Short> getResult() {
+	public WaveformPyramid getResult() {
 		if (this.getStatus() == AsyncTask.Status.FINISHED) {
-			return amplitudeList;
+			return this.pyramid;
 		} else {
 			return null;
 		}
-	}	
-
-	/**
-	 * Check values, if they are a gunShot
-	 * 
-	 * @param samples
-	 * @return
-	 */
-	private boolean isShot(short[] samples) {
-		int counter = 0;
-
-		for (int i = 0; i < samples.length; i++) {
-			counter += samples[i];
-		}
-
-		if (counter > this.gunshotSensitivity) {
-			Log.i("sensitivity", "" + this.gunshotSensitivity);
-			Log.i("value", "" + counter);
-			return true;
-		}
-
-		return false;
 	}
 }
\ No newline at end of file
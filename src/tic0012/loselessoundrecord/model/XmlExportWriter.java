@@ -0,0 +1,78 @@
+package tic0012.loselessoundrecord.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import org.xmlpull.v1.XmlSerializer;
+import android.text.format.DateFormat;
+import android.util.Xml;
+
+/**
+ * XML export, one element per category, record and gunShot
+ * 
+ * @author tic0012, Michal Tich
+ */
+public class XmlExportWriter implements ExportWriter {
+
+	private XmlSerializer serializer;
+
+	public String getExtension() {
+		return "xml";
+	}
+
+	public String getMimeType() {
+		return "text/xml";
+	}
+
+	public void start(OutputStream out) throws IOException {
+		this.serializer = Xml.newSerializer();
+		this.serializer.setOutput(out, "UTF-8");
+		this.serializer.startDocument("UTF-8", true);
+
+		this.serializer.startTag(null, "categories");
+	}
+
+	public void startCategory(long id, String name) throws IOException {
+		this.serializer.startTag(null, "category");
+		this.serializer.attribute(null, "id", String.valueOf(id));
+
+		this.serializer.startTag(null, "name");
+		this.serializer.text(name);
+		this.serializer.endTag(null, "name");
+
+		this.serializer.startTag(null, "records");
+	}
+
+	public void endCategory() throws IOException {
+		this.serializer.endTag(null, "records");
+		this.serializer.endTag(null, "category");
+	}
+
+	public void startRecord(long id, Date dateRecorded) throws IOException {
+		this.serializer.startTag(null, "record");
+		this.serializer.attribute(null, "id", String.valueOf(id));
+		this.serializer.attribute(null, "date", DateFormat.format(
+				"yyyy-MM-dd hh:mm:ss", dateRecorded).toString());
+
+		this.serializer.startTag(null, "gunshots");
+	}
+
+	public void endRecord() throws IOException {
+		this.serializer.endTag(null, "gunshots");
+		this.serializer.endTag(null, "record");
+	}
+
+	public void gunshot(long id, float time) throws IOException {
+		this.serializer.startTag(null, "gunshot");
+		this.serializer.attribute(null, "id", String.valueOf(id));
+		this.serializer.attribute(null, "time", String.valueOf(time));
+		this.serializer.endTag(null, "gunshot");
+	}
+
+	public void finish() throws IOException {
+		this.serializer.endTag(null, "categories");
+
+		this.serializer.endDocument();
+		this.serializer.flush();
+	}
+}
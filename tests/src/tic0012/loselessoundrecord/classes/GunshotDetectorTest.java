@@ -0,0 +1,260 @@
+package tic0012.loselessoundrecord.classes;
+
+import java.util.ArrayList;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * GunShot detector on synthetic records, compared with former search of
+ * 0.04 s parts of positive samples
+ * 
+ * @author tic0012, Michal Tich
+ */
+public class GunshotDetectorTest extends TestCase {
+
+	private static final int RATE = GunshotDetector.REFERENCE_RATE;
+
+	private static final int SENSITIVITY = 5;
+
+	/**
+	 * Former searching part of positive samples in seconds
+	 */
+	private static final float SEARCHING_PART = 0.04f;
+
+	/**
+	 * Allowed difference of gunShot times in seconds, detector reports start
+	 * of window, which is before gunShot
+	 */
+	private static final float TOLERANCE = GunshotDetector.WINDOW_TIME;
+
+	/**
+	 * Allowed difference to gunShot times of former search, it reports start
+	 * of part, which can be behind gunShot
+	 */
+	private static final float OLD_TOLERANCE = 2 * GunshotDetector.WINDOW_TIME;
+
+	/**
+	 * Quiet noise of given length
+	 * 
+	 * @param seconds
+	 * @return
+	 */
+	private short[] noise(float seconds) {
+		Random random = new Random(7);
+		short[] samples = new short[(int) (seconds * RATE)];
+
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short) (random.nextGaussian() * 200);
+		}
+
+		return samples;
+	}
+
+	/**
+	 * Add clipped decaying oscillation, similar to recorded gunShot
+	 * 
+	 * @param samples
+	 * @param time
+	 *            start of gunShot in seconds
+	 */
+	private void addShot(short[] samples, float time) {
+		int start = (int) (time * RATE);
+
+		for (int i = 0; start + i < samples.length && i < RATE / 2; i++) {
+			double t = (double) i / RATE;
+			double value = samples[start + i] + 60000 * Math.exp(-t / 0.1)
+					* Math.sin(2 * Math.PI * 700 * t);
+
+			samples[start + i] = (short) Math.max(-32768,
+					Math.min(32767, value));
+		}
+	}
+
+	/**
+	 * GunShots found by detector with default sensitivity
+	 * 
+	 * @param samples
+	 * @param blockSize
+	 *            samples are processed in blocks of this size
+	 * @return indexes of gunShots
+	 */
+	private ArrayList<Integer> detect(short[] samples, int blockSize) {
+		final ArrayList<Integer> shots = new ArrayList<Integer>();
+		GunshotDetector detector = new GunshotDetector(RATE, SENSITIVITY, true,
+				new GunshotDetector.OnShotListener() {
+					public void onShot(int sampleIndex) {
+						shots.add(sampleIndex);
+					}
+				});
+
+		for (int offset = 0; offset < samples.length; offset += blockSize) {
+			detector.process(samples, offset,
+					Math.min(blockSize, samples.length - offset));
+		}
+
+		return shots;
+	}
+
+	/**
+	 * Former search, parts of SEARCHING_PART positive samples are summed
+	 * one after another, sample behind full part is not used
+	 * 
+	 * @param samples
+	 * @return indexes of gunShots
+	 */
+	private ArrayList<Integer> oldSearch(short[] samples) {
+		ArrayList<Integer> shots = new ArrayList<Integer>();
+		int partSamples = (int) (RATE * SEARCHING_PART);
+		int spaceSamples = (int) (RATE * GunshotDetector.GUNSHOT_SPACE);
+		int threshold = GunshotDetector.SHOT_VALUES[SENSITIVITY];
+		int readForSearch = 0;
+		int sum = 0;
+
+		for (int i = 0; i < samples.length; i++) {
+			if (readForSearch == partSamples) {
+				int index = i - partSamples;
+
+				if ((shots.isEmpty() || shots.get(shots.size() - 1)
+						+ spaceSamples <= index)
+						&& sum > threshold) {
+					shots.add(index);
+				}
+
+				sum = 0;
+				readForSearch = 0;
+			} else if (samples[i] > 0) {
+				sum += samples[i];
+				readForSearch++;
+			}
+		}
+
+		return shots;
+	}
+
+	/**
+	 * Some of found gunShots is close to time
+	 */
+	private boolean contains(ArrayList<Integer> shots, float time,
+			float tolerance) {
+		for (int index : shots) {
+			if (Math.abs((float) index / RATE - time) <= tolerance) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public void testFindsEachShot() {
+		float[] times = { 1.0f, 2.5f, 2.9f, 4.0f, 6.2f };
+		short[] samples = this.noise(7);
+		for (float time : times) {
+			this.addShot(samples, time);
+		}
+
+		ArrayList<Integer> shots = this.detect(samples, 4096);
+
+		assertEquals(times.length, shots.size());
+		for (float time : times) {
+			assertTrue("Missing shot at " + time,
+					this.contains(shots, time, TOLERANCE));
+		}
+	}
+
+	public void testFindsShotsOfOldSearch() {
+		short[] samples = this.noise(12);
+		int count = 0;
+		for (float time = 0.5f; time < 11; time += 0.73f) {
+			this.addShot(samples, time);
+			count++;
+		}
+
+		ArrayList<Integer> old = this.oldSearch(samples);
+		ArrayList<Integer> shots = this.detect(samples, 4096);
+
+		// old search misses gunShots split between two parts
+		assertTrue(old.size() > 0);
+		assertEquals(count, shots.size());
+		for (int index : old) {
+			assertTrue("Old shot at " + index + " not found",
+					this.contains(shots, (float) index / RATE, OLD_TOLERANCE));
+		}
+	}
+
+	public void testQuietRecordHasNoShot() {
+		short[] samples = this.noise(5);
+
+		assertEquals(0, this.detect(samples, 4096).size());
+		assertEquals(0, this.oldSearch(samples).size());
+	}
+
+	public void testBlockSizeDoesNotChangeShots() {
+		short[] samples = this.noise(5);
+		this.addShot(samples, 0.3f);
+		this.addShot(samples, 2.2f);
+		this.addShot(samples, 3.7f);
+
+		ArrayList<Integer> whole = this.detect(samples, samples.length);
+
+		assertEquals(whole, this.detect(samples, 1));
+		assertEquals(whole, this.detect(samples, 333));
+		assertEquals(whole, this.detect(samples, 4096));
+	}
+
+	public void testCloseShotsAreSpaced() {
+		short[] samples = this.noise(3);
+		this.addShot(samples, 1.0f);
+		this.addShot(samples, 1.05f); // echo inside GUNSHOT_SPACE
+
+		ArrayList<Integer> shots = this.detect(samples, 4096);
+		int spaceSamples = (int) (RATE * GunshotDetector.GUNSHOT_SPACE);
+
+		assertTrue(this.contains(shots, 1.0f, TOLERANCE));
+		for (int i = 1; i < shots.size(); i++) {
+			assertTrue(shots.get(i) - shots.get(i - 1) >= spaceSamples);
+		}
+	}
+
+	public void testShotsAreSpacedFromLastShot() {
+		final ArrayList<Integer> shots = new ArrayList<Integer>();
+		GunshotDetector detector = new GunshotDetector(10, 25, 50,
+				new GunshotDetector.OnShotListener() {
+					public void onShot(int sampleIndex) {
+						shots.add(sampleIndex);
+					}
+				});
+
+		// loud all the time, each sample is over threshold
+		short[] samples = new short[100];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = 100;
+		}
+		detector.process(samples, 0, samples.length);
+
+		assertEquals(4, shots.size());
+		for (int i = 0; i < shots.size(); i++) {
+			assertEquals(i * 25, (int) shots.get(i));
+		}
+	}
+
+	public void testThresholdFollowsWindowLength() {
+		long threshold = GunshotDetector.SHOT_VALUES[SENSITIVITY];
+
+		assertEquals(threshold,
+				GunshotDetector.scaleThreshold(threshold, RATE, RATE));
+		assertEquals(threshold * 1280 / 882,
+				GunshotDetector.scaleThreshold(threshold, 16000, RATE));
+		assertEquals(threshold * 960 / 882,
+				GunshotDetector.scaleThreshold(threshold, 12000, RATE));
+	}
+
+	public void testUncompressedSearchKeepsCalibration() {
+		long threshold = GunshotDetector.SHOT_VALUES[SENSITIVITY];
+		int rate = GunshotDetector.UNCOMPRESSED_REFERENCE_RATE;
+
+		assertEquals(threshold,
+				GunshotDetector.scaleThreshold(threshold, 44100, rate));
+		assertEquals(threshold * 3840 / 3528,
+				GunshotDetector.scaleThreshold(threshold, 48000, rate));
+	}
+}
@@ -0,0 +1,182 @@
+package tic0012.loselessoundrecord.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import junit.framework.TestCase;
+
+/**
+ * Round trip of binary export, exported data are decoded back and compared
+ * 
+ * @author tic0012, Michal Tich
+ */
+public class BinaryExportReaderTest extends TestCase {
+
+	/**
+	 * Export the same content into writer
+	 * 
+	 * @param writer
+	 * @param out
+	 * @throws IOException
+	 */
+	private void export(ExportWriter writer, OutputStream out)
+			throws IOException {
+		writer.start(out);
+
+		writer.startCategory(1, "Pistole");
+		writer.startRecord(10, new Date(1356994800000L));
+		writer.gunshot(100, 0.5f);
+		writer.gunshot(101, 1.25f);
+		writer.gunshot(105, 0.75f); // times are not sorted
+		writer.endRecord();
+		writer.startRecord(7, new Date(1356994700000L)); // lower id and date
+		writer.endRecord();
+		writer.endCategory();
+
+		writer.startCategory(3, "Pu\u0161ka, st\u0159elnice");
+		writer.endCategory();
+
+		writer.startCategory(1L << 40, "");
+		writer.startRecord(1L << 40, new Date(0));
+		writer.gunshot(1L << 40, 3599.999f);
+		writer.gunshot(5, -0.2f); // gunShot in pre-roll
+		writer.endRecord();
+		writer.endCategory();
+
+		writer.finish();
+	}
+
+	private byte[] exportBinary() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		this.export(new BinaryExportWriter(), out);
+
+		return out.toByteArray();
+	}
+
+	public void testRoundTripKeepsContent() throws IOException {
+		EventLog expected = new EventLog();
+		this.export(expected, null);
+
+		EventLog decoded = new EventLog();
+		decoded.start(null);
+		new BinaryExportReader(new ByteArrayInputStream(this.exportBinary()))
+				.readTo(decoded);
+		decoded.finish();
+
+		assertEquals(expected.toString(), decoded.toString());
+	}
+
+	public void testDecodedExportIsWrittenTheSame() throws IOException {
+		byte[] exported = this.exportBinary();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryExportWriter writer = new BinaryExportWriter();
+		writer.start(out);
+		new BinaryExportReader(new ByteArrayInputStream(exported))
+				.readTo(writer);
+		writer.finish();
+
+		assertTrue(Arrays.equals(exported, out.toByteArray()));
+	}
+
+	public void testEmptyExport() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryExportWriter writer = new BinaryExportWriter();
+		writer.start(out);
+		writer.finish();
+
+		EventLog decoded = new EventLog();
+		new BinaryExportReader(new ByteArrayInputStream(out.toByteArray()))
+				.readTo(decoded);
+
+		assertEquals("", decoded.toString());
+	}
+
+	public void testWrongMagicIsRejected() {
+		byte[] exported = this.exportBinaryOrFail();
+		exported[0] = 'X';
+
+		try {
+			new BinaryExportReader(new ByteArrayInputStream(exported))
+					.readTo(new EventLog());
+			fail("Wrong magic accepted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testTruncatedExportIsRejected() {
+		byte[] exported = this.exportBinaryOrFail();
+
+		try {
+			new BinaryExportReader(new ByteArrayInputStream(exported, 0,
+					exported.length - 3)).readTo(new EventLog());
+			fail("Truncated export accepted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private byte[] exportBinaryOrFail() {
+		try {
+			return this.exportBinary();
+		} catch (IOException e) {
+			fail(e.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Writer logging passed content, gunShot times in microseconds as they
+	 * are stored
+	 */
+	private static class EventLog implements ExportWriter {
+
+		private StringBuilder log = new StringBuilder();
+
+		public String getExtension() {
+			return "log";
+		}
+
+		public String getMimeType() {
+			return "text/plain";
+		}
+
+		public void start(OutputStream out) {
+		}
+
+		public void startCategory(long id, String name) {
+			this.log.append("category ").append(id).append(' ').append(name)
+					.append('\n');
+		}
+
+		public void endCategory() {
+			this.log.append("end category\n");
+		}
+
+		public void startRecord(long id, Date dateRecorded) {
+			this.log.append("record ").append(id).append(' ')
+					.append(dateRecorded.getTime()).append('\n');
+		}
+
+		public void endRecord() {
+			this.log.append("end record\n");
+		}
+
+		public void gunshot(long id, float time) {
+			this.log.append("gunshot ").append(id).append(' ')
+					.append(Math.round(time * 1000000.0)).append('\n');
+		}
+
+		public void finish() {
+		}
+
+		@Override
+		public String toString() {
+			return this.log.toString();
+		}
+	}
+}